@@ -0,0 +1,50 @@
+package spss.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import spss.SPSS;
+
+/*
+ * Measures loading a whole roster with addStudent() at growing roster sizes.
+ * With an indexed roster the time per student should stay flat as the
+ * roster grows.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AddStudentBenchmark {
+
+	@Param({"1000", "10000", "100000"})
+	public int rosterSize;
+
+	private String[] names;
+
+	@Setup
+	public void setup() {
+		names = SyntheticInput.names(rosterSize);
+	}
+
+	@Benchmark
+	public SPSS loadRoster() {
+		SPSS server = new SPSS(5);
+		for (String name : names) {
+			server.addStudent(name);
+		}
+		return server;
+	}
+}
@@ -0,0 +1,117 @@
+package spss.bench;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import spss.SPSS;
+
+/*
+ * Measures addSubmission() from one thread and from as many threads as
+ * there are processors, both spread over the roster and all for one
+ * student, which is the worst case for per-student locking.  The rows and
+ * the students they go to are generated in setup and cycled through, so
+ * only the server's own work is measured.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AddSubmissionBenchmark {
+	private static final int NUM_TESTS = 5;
+	// Number of generated rows, a power of two
+	private static final int NUM_ROWS = 4096;
+
+	@Param({"10000"})
+	public int rosterSize;
+
+	private String[] names;
+	private SPSS server;
+	// Student of each row
+	private String[] rowNames;
+	private int[][] rows;
+	// The same rows as boxed lists
+	private List<List<Integer>> lists;
+
+	/*
+	 * The position of one benchmark thread in the generated rows.
+	 */
+	@State(Scope.Thread)
+	public static class Cursor {
+		private int next;
+
+		// Returns the index of the next row
+		int next() {
+			return next++ & (NUM_ROWS - 1);
+		}
+	}
+
+	@Setup
+	public void setup() {
+		names = SyntheticInput.names(rosterSize);
+		server = SyntheticInput.server(NUM_TESTS, names);
+		Random random = new Random(7);
+		rowNames = new String[NUM_ROWS];
+		rows = new int[NUM_ROWS][NUM_TESTS];
+		lists = new ArrayList<>(NUM_ROWS);
+		for (int r = 0; r < NUM_ROWS; r++) {
+			rowNames[r] = names[random.nextInt(names.length)];
+			List<Integer> list = new ArrayList<>(NUM_TESTS);
+			for (int i = 0; i < NUM_TESTS; i++) {
+				rows[r][i] = random.nextInt(26);
+				list.add(rows[r][i]);
+			}
+			lists.add(list);
+		}
+	}
+
+	@Benchmark
+	@Threads(1)
+	public boolean singleThread(Cursor cursor) {
+		int row = cursor.next();
+		return server.addSubmission(rowNames[row], rows[row]);
+	}
+
+	@Benchmark
+	@Threads(1)
+	public boolean singleThreadList(Cursor cursor) {
+		int row = cursor.next();
+		return server.addSubmission(rowNames[row], lists.get(row));
+	}
+
+	@Benchmark
+	@Threads(Threads.MAX)
+	public boolean contendedRoster(Cursor cursor) {
+		int row = cursor.next();
+		return server.addSubmission(rowNames[row], rows[row]);
+	}
+
+	@Benchmark
+	@Threads(Threads.MAX)
+	public boolean contendedRosterList(Cursor cursor) {
+		int row = cursor.next();
+		return server.addSubmission(rowNames[row], lists.get(row));
+	}
+
+	@Benchmark
+	@Threads(Threads.MAX)
+	public boolean contendedOneStudent(Cursor cursor) {
+		return server.addSubmission(names[0], rows[cursor.next()]);
+	}
+}
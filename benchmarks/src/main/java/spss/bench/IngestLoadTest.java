@@ -0,0 +1,305 @@
+package spss.bench;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import spss.SPSS;
+import spss.ShardedIngest;
+
+/*
+ * Reproduces end of term load on one machine: generates a roster and
+ * submission files in the format of the publicN-input files, loads the
+ * roster with addStudent(), reads the files with
+ * readSubmissionsConcurrently(), and reports lines per second and the
+ * peak heap used.  It then adds the same lines again, one addSubmission()
+ * call each, and reports the latency of those calls; this is the latency
+ * of single submissions, not of the batched path the files are read with.
+ *
+ * Submissions are skewed like public6-input, where GinnyGiraffe resubmits
+ * far more often than anyone else: a few hot students get a fixed share of
+ * all lines, and the rest are spread over the roster.
+ *
+ * Run with
+ *   java -cp target/benchmarks.jar spss.bench.IngestLoadTest [options]
+ * where the options, with their defaults, are
+ *   --students 50000   number of students in the roster
+ *   --files 16         number of submission files
+ *   --lines 200000     number of lines per file
+ *   --tests 5          number of tests per submission
+ *   --hot 10           number of hot students
+ *   --hot-share 0.2    share of lines made by the hot students
+ *   --seed 1           seed of the generated input
+ *   --shards 0         number of writer shards, or 0 to read the files with
+ *                      readSubmissionsConcurrently() instead
+ */
+public class IngestLoadTest {
+	private int numStudents = 50000;
+	private int numFiles = 16;
+	private int linesPerFile = 200000;
+	private int numTests = 5;
+	private int numHot = 10;
+	private double hotShare = 0.2;
+	private long seed = 1;
+	private int numShards = 0;
+
+	public static void main(String[] args) throws Exception {
+		IngestLoadTest test = new IngestLoadTest();
+		test.parseArgs(args);
+		test.run();
+	}
+
+	// Set the options from the command line arguments
+	private void parseArgs(String[] args) {
+		for (int i = 0; i + 1 < args.length; i += 2) {
+			String value = args[i + 1];
+			switch (args[i]) {
+			case "--students":
+				numStudents = Integer.parseInt(value);
+				break;
+			case "--files":
+				numFiles = Integer.parseInt(value);
+				break;
+			case "--lines":
+				linesPerFile = Integer.parseInt(value);
+				break;
+			case "--tests":
+				numTests = Integer.parseInt(value);
+				break;
+			case "--hot":
+				numHot = Integer.parseInt(value);
+				break;
+			case "--hot-share":
+				hotShare = Double.parseDouble(value);
+				break;
+			case "--seed":
+				seed = Long.parseLong(value);
+				break;
+			case "--shards":
+				numShards = Integer.parseInt(value);
+				break;
+			default:
+				throw new IllegalArgumentException("Unknown option: "
+						+ args[i]);
+			}
+		}
+		if (args.length % 2 != 0) {
+			throw new IllegalArgumentException("Missing value for "
+					+ args[args.length - 1]);
+		}
+		numHot = Math.max(1, Math.min(numHot, numStudents));
+	}
+
+	private void run() throws Exception {
+		System.out.printf("students=%d files=%d lines/file=%d tests=%d "
+				+ "hot=%d hot-share=%.2f shards=%d%n", numStudents, numFiles,
+				linesPerFile, numTests, numHot, hotShare, numShards);
+		String[] names = SyntheticInput.names(numStudents);
+		List<String> fileNames = writeFiles(names);
+		long totalLines = (long) numFiles * linesPerFile;
+
+		// Load the roster and read all files, as the service does
+		System.gc();
+		resetPeakHeap();
+		long start = System.nanoTime();
+		SPSS server = SyntheticInput.server(numTests, names);
+		long rosterDone = System.nanoTime();
+		if (numShards > 0) {
+			try (ShardedIngest ingest = server.openShardedIngest(numShards)) {
+				ingest.readSubmissions(fileNames);
+			}
+		} else {
+			server.readSubmissionsConcurrently(fileNames);
+		}
+		long readDone = System.nanoTime();
+		long peakHeap = peakHeap();
+
+		System.out.printf("roster load:    %10.1f ms%n",
+				(rosterDone - start) / 1e6);
+		System.out.printf("ingest:         %10.1f ms, %.0f lines/s%n",
+				(readDone - rosterDone) / 1e6,
+				totalLines / ((readDone - rosterDone) / 1e9));
+		System.out.printf("submissions:    %10d of %d lines%n",
+				server.numSubmissions(), totalLines);
+		System.out.printf("peak heap:      %10.1f MB%n", peakHeap / 1e6);
+
+		// Add the same lines one at a time from one thread per file,
+		// timing each addSubmission() call
+		SPSS timed = SyntheticInput.server(numTests, names);
+		Histogram latency = applyTimed(timed, fileNames);
+		System.out.printf("single-submission addSubmission latency: "
+				+ "p50 %.2f us, p99 %.2f us, max %.2f us%n",
+				latency.percentile(50) / 1e3,
+				latency.percentile(99) / 1e3, latency.max() / 1e3);
+	}
+
+	// Write the submission files, returning their names
+	private List<String> writeFiles(String[] names) throws IOException {
+		Path dir = Files.createTempDirectory(Paths.get("."), "spss-load");
+		dir.toFile().deleteOnExit();
+		Random random = new Random(seed);
+		List<String> fileNames = new ArrayList<>();
+		StringBuilder line = new StringBuilder();
+		for (int f = 0; f < numFiles; f++) {
+			Path file = dir.resolve("input-" + f);
+			file.toFile().deleteOnExit();
+			try (BufferedWriter out = Files.newBufferedWriter(file,
+					StandardCharsets.UTF_8)) {
+				for (int i = 0; i < linesPerFile; i++) {
+					String name = random.nextDouble() < hotShare
+							? names[random.nextInt(numHot)]
+							: names[random.nextInt(names.length)];
+					line.setLength(0);
+					SyntheticInput.appendLine(line, name, numTests, random);
+					out.append(line);
+				}
+			}
+			fileNames.add(Paths.get(".").relativize(file).toString());
+		}
+		return fileNames;
+	}
+
+	// Add the lines of the files with one thread per file, timing each
+	// call, and return the merged latencies.  The files are parsed before
+	// any thread starts adding, so only addSubmission() is timed
+	private Histogram applyTimed(SPSS server, List<String> fileNames)
+			throws IOException, InterruptedException {
+		List<Thread> threads = new ArrayList<>();
+		List<Histogram> histograms = new ArrayList<>();
+		for (String fileName : fileNames) {
+			List<String> lineNames = new ArrayList<>();
+			List<int[]> rows = new ArrayList<>();
+			readLines(fileName, lineNames, rows);
+			Histogram histogram = new Histogram();
+			histograms.add(histogram);
+			threads.add(new Thread(() -> {
+				for (int i = 0; i < rows.size(); i++) {
+					String name = lineNames.get(i);
+					int[] scores = rows.get(i);
+					long before = System.nanoTime();
+					server.addSubmission(name, scores);
+					histogram.record(System.nanoTime() - before);
+				}
+			}));
+		}
+		for (Thread thread : threads) {
+			thread.start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		Histogram merged = new Histogram();
+		for (Histogram histogram : histograms) {
+			merged.add(histogram);
+		}
+		return merged;
+	}
+
+	// Parse the lines of a file into the names and scores they hold
+	private void readLines(String fileName, List<String> lineNames,
+			List<int[]> rows) throws IOException {
+		try (BufferedReader in = Files.newBufferedReader(Paths.get(fileName),
+				StandardCharsets.UTF_8)) {
+			String line;
+			while ((line = in.readLine()) != null) {
+				String[] parts = line.trim().split("\\s+");
+				int[] scores = new int[numTests];
+				for (int t = 0; t < numTests; t++) {
+					scores[t] = Integer.parseInt(parts[t + 1]);
+				}
+				lineNames.add(parts[0]);
+				rows.add(scores);
+			}
+		}
+	}
+
+	private static void resetPeakHeap() {
+		for (MemoryPoolMXBean pool
+				: ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() == MemoryType.HEAP) {
+				pool.resetPeakUsage();
+			}
+		}
+	}
+
+	private static long peakHeap() {
+		long peak = 0;
+		for (MemoryPoolMXBean pool
+				: ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() == MemoryType.HEAP) {
+				peak += pool.getPeakUsage().getUsed();
+			}
+		}
+		return peak;
+	}
+
+	/*
+	 * A histogram of durations in nanoseconds with a fixed number of
+	 * buckets: 64 linear buckets per power of two, so percentiles are
+	 * accurate to within about 2 percent.
+	 */
+	static class Histogram {
+		private static final int SUB_BUCKETS = 64;
+		private final long[] counts = new long[64 * SUB_BUCKETS];
+		private long total;
+		private long max;
+
+		// Return the bucket a value falls into
+		private static int bucket(long value) {
+			if (value < SUB_BUCKETS) {
+				return (int) value;
+			}
+			int shift = 63 - Long.numberOfLeadingZeros(value) - 6;
+			return shift * SUB_BUCKETS + (int) (value >>> shift);
+		}
+
+		// Return the smallest value falling into a bucket
+		private static long lowest(int bucket) {
+			if (bucket < 2 * SUB_BUCKETS) {
+				return bucket;
+			}
+			int shift = bucket / SUB_BUCKETS - 1;
+			return (long) (bucket - shift * SUB_BUCKETS) << shift;
+		}
+
+		void record(long value) {
+			counts[bucket(Math.max(0, value))]++;
+			total++;
+			max = Math.max(max, value);
+		}
+
+		void add(Histogram other) {
+			for (int i = 0; i < counts.length; i++) {
+				counts[i] += other.counts[i];
+			}
+			total += other.total;
+			max = Math.max(max, other.max);
+		}
+
+		long percentile(double percent) {
+			long rank = (long) Math.ceil(total * percent / 100.0);
+			long seen = 0;
+			for (int i = 0; i < counts.length; i++) {
+				seen += counts[i];
+				if (seen >= rank && counts[i] > 0) {
+					return lowest(i);
+				}
+			}
+			return max;
+		}
+
+		long max() {
+			return max;
+		}
+	}
+}
@@ -0,0 +1,89 @@
+package spss.bench;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import spss.SPSS;
+
+/*
+ * Measures the query methods on a server whose students all have
+ * submissions.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class QueryBenchmark {
+	private static final int NUM_TESTS = 5;
+
+	@Param({"1000", "100000"})
+	public int rosterSize;
+
+	private String[] names;
+	private SPSS server;
+
+	@Setup
+	public void setup() throws IOException {
+		names = SyntheticInput.names(rosterSize);
+		server = SyntheticInput.server(NUM_TESTS, names);
+		List<String> fileNames = SyntheticInput.writeFiles(names, NUM_TESTS,
+				1, rosterSize * 4, 7);
+		server.readSubmissionsConcurrently(fileNames);
+	}
+
+	// Returns the name of a random student
+	private String anyName() {
+		return names[ThreadLocalRandom.current().nextInt(names.length)];
+	}
+
+	@Benchmark
+	public int score() {
+		return server.score(anyName());
+	}
+
+	@Benchmark
+	public boolean satisfactory() {
+		return server.satisfactory(anyName());
+	}
+
+	@Benchmark
+	public boolean gotExtraCredit() {
+		return server.gotExtraCredit(anyName());
+	}
+
+	@Benchmark
+	public int numSubmissionsOfStudent() {
+		return server.numSubmissions(anyName());
+	}
+
+	@Benchmark
+	public int numSubmissions() {
+		return server.numSubmissions();
+	}
+
+	@Benchmark
+	public int rankOf() {
+		return server.rankOf(anyName());
+	}
+
+	@Benchmark
+	public List<String> top10() {
+		return server.topK(10);
+	}
+}
@@ -0,0 +1,74 @@
+package spss.bench;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import spss.SPSS;
+
+/*
+ * Measures reading synthetic submission files in the publicN-input format,
+ * with readSubmissionsConcurrently() over several files and with
+ * readSubmissionsInParallel() over the first one.  Each invocation reads
+ * into a fresh server with the roster already loaded.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ReadSubmissionsBenchmark {
+	private static final int NUM_TESTS = 5;
+
+	@Param({"1", "4", "16"})
+	public int fileCount;
+
+	@Param({"10000", "100000"})
+	public int linesPerFile;
+
+	@Param({"10000"})
+	public int rosterSize;
+
+	private String[] names;
+	private List<String> fileNames;
+	private SPSS server;
+
+	@Setup(Level.Trial)
+	public void writeFiles() throws IOException {
+		names = SyntheticInput.names(rosterSize);
+		fileNames = SyntheticInput.writeFiles(names, NUM_TESTS, fileCount,
+				linesPerFile, 42);
+	}
+
+	@Setup(Level.Invocation)
+	public void loadRoster() {
+		server = SyntheticInput.server(NUM_TESTS, names);
+	}
+
+	@Benchmark
+	public int readConcurrently() {
+		server.readSubmissionsConcurrently(fileNames);
+		return server.numSubmissions();
+	}
+
+	@Benchmark
+	public int readFirstFileInParallel() {
+		server.readSubmissionsInParallel(fileNames.get(0),
+				Runtime.getRuntime().availableProcessors());
+		return server.numSubmissions();
+	}
+}
@@ -0,0 +1,106 @@
+package spss.bench;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import spss.SPSS;
+
+/*
+ * Generates rosters and submission files in the format of the publicN-input
+ * files: a name followed by one score per test, each right aligned in a
+ * column two characters wide and separated by one space.
+ */
+public class SyntheticInput {
+
+	private SyntheticInput() {
+	}
+
+	/*
+	 * Returns the names of a roster of the given size.
+	 *
+	 * parameter numStudents The number of students.
+	 * return The names, all different.
+	 */
+	public static String[] names(int numStudents) {
+		String[] names = new String[numStudents];
+		for (int i = 0; i < numStudents; i++) {
+			names[i] = "Student" + i;
+		}
+		return names;
+	}
+
+	/*
+	 * Creates a server with the given roster.
+	 *
+	 * parameter numTests The number of tests.
+	 * parameter names The names of the students.
+	 * return The server.
+	 */
+	public static SPSS server(int numTests, String[] names) {
+		SPSS server = new SPSS(numTests);
+		for (String name : names) {
+			server.addStudent(name);
+		}
+		return server;
+	}
+
+	/*
+	 * Appends one submission line, with scores between 0 and 25.
+	 *
+	 * parameter line The line to append to.
+	 * parameter name The name of the student.
+	 * parameter numTests The number of tests.
+	 * parameter random The random numbers to take scores from.
+	 */
+	public static void appendLine(StringBuilder line, String name,
+			int numTests, Random random) {
+		line.append(name);
+		for (int t = 0; t < numTests; t++) {
+			int score = random.nextInt(26);
+			line.append(score < 10 ? "  " : " ").append(score);
+		}
+		line.append('\n');
+	}
+
+	/*
+	 * Writes submission files into a new directory below the current
+	 * directory, which is where SPSS.readSubmissionsConcurrently() looks.
+	 *
+	 * parameter names The names of the students to write submissions for.
+	 * parameter numTests The number of tests.
+	 * parameter numFiles The number of files.
+	 * parameter linesPerFile The number of lines in each file.
+	 * parameter seed The seed of the random scores and students.
+	 * return The names of the files, relative to the current directory.
+	 */
+	public static List<String> writeFiles(String[] names, int numTests,
+			int numFiles, int linesPerFile, long seed) throws IOException {
+		Path dir = Files.createTempDirectory(Paths.get("."), "spss-bench");
+		dir.toFile().deleteOnExit();
+		Random random = new Random(seed);
+		List<String> fileNames = new ArrayList<>();
+		StringBuilder line = new StringBuilder();
+		for (int f = 0; f < numFiles; f++) {
+			Path file = dir.resolve("input-" + f);
+			file.toFile().deleteOnExit();
+			try (BufferedWriter out = Files.newBufferedWriter(file,
+					StandardCharsets.UTF_8)) {
+				for (int i = 0; i < linesPerFile; i++) {
+					line.setLength(0);
+					appendLine(line, names[random.nextInt(names.length)],
+							numTests, random);
+					out.append(line);
+				}
+			}
+			fileNames.add(Paths.get(".").relativize(file).toString());
+		}
+		return fileNames;
+	}
+}
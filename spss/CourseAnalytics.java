@@ -0,0 +1,167 @@
+package spss;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.stream.IntStream;
+
+/*
+ * Computes exact CourseStatistics over all students with fork/join
+ * parallelism.  The students are split into ranges; each range copies its
+ * students' best scores into one column per test, then each column is
+ * sorted in parallel and counted into its distribution.
+ */
+class CourseAnalytics {
+	// Number of students below which a range is not split further
+	private static final int LEAF_SIZE = 4096;
+
+	private final StudentTable students;
+	private final ResultStore results;
+	private final int numTests;
+	private final int numStudents;
+	// Best scores of each test by student index, and the totals
+	private final int[][] columns;
+	private final int[] totals;
+	// True for the students with a submission, and for satisfactory ones
+	private final boolean[] hasResults;
+	private final boolean[] satisfactory;
+
+	/*
+	 * Prepares to compute statistics over the students added so far.
+	 *
+	 * parameter students The students.
+	 * parameter results The results of the students.
+	 * parameter numTests The number of tests.
+	 */
+	CourseAnalytics(StudentTable students, ResultStore results,
+			int numTests) {
+		this.students = students;
+		this.results = results;
+		this.numTests = numTests;
+		this.numStudents = students.size();
+		this.columns = new int[numTests][numStudents];
+		this.totals = new int[numStudents];
+		this.hasResults = new boolean[numStudents];
+		this.satisfactory = new boolean[numStudents];
+	}
+
+	/*
+	 * Copies the best scores of a range of students into the columns,
+	 * splitting the range while it is large.
+	 */
+	private class CopyTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final int start;
+		private final int end;
+
+		CopyTask(int start, int end) {
+			this.start = start;
+			this.end = end;
+		}
+
+		@Override
+		protected void compute() {
+			if (end - start > LEAF_SIZE) {
+				int middle = (start + end) >>> 1;
+				invokeAll(new CopyTask(start, middle),
+						new CopyTask(middle, end));
+				return;
+			}
+			for (int i = start; i < end; i++) {
+				Submission best = results.best(students.get(i));
+				if (!best.hasResults()) {
+					continue;
+				}
+				int[] scores = best.getScores();
+				for (int t = 0; t < numTests; t++) {
+					columns[t][i] = scores[t];
+				}
+				totals[i] = best.getTotalScore();
+				hasResults[i] = true;
+				satisfactory[i] = SPSS.isSatisfactory(best);
+			}
+		}
+	}
+
+	/*
+	 * Computes the statistics.  Submissions added meanwhile may or may not
+	 * be included.
+	 *
+	 * return The statistics.
+	 */
+	CourseStatistics compute() {
+		ForkJoinPool.commonPool().invoke(new CopyTask(0, numStudents));
+
+		int numWithResults = 0;
+		int numSatisfactory = 0;
+		for (int i = 0; i < numStudents; i++) {
+			if (hasResults[i]) {
+				numWithResults++;
+			}
+			if (satisfactory[i]) {
+				numSatisfactory++;
+			}
+		}
+
+		// Sort the column of each test, and the totals, in parallel
+		int[][] sorted = new int[numTests + 1][];
+		long[] sums = new long[numTests + 1];
+		int withResults = numWithResults;
+		IntStream.rangeClosed(0, numTests).parallel().forEach(t -> {
+			int[] column = t < numTests ? columns[t] : totals;
+			int[] kept = new int[withResults];
+			int n = 0;
+			long sum = 0;
+			for (int i = 0; i < numStudents; i++) {
+				if (hasResults[i]) {
+					kept[n++] = column[i];
+					sum += column[i];
+				}
+			}
+			Arrays.parallelSort(kept);
+			sorted[t] = kept;
+			sums[t] = sum;
+		});
+
+		int[][] values = new int[numTests][];
+		long[][] counts = new long[numTests][];
+		for (int t = 0; t < numTests; t++) {
+			int distinct = countDistinct(sorted[t]);
+			values[t] = new int[distinct];
+			counts[t] = new long[distinct];
+			distribute(sorted[t], values[t], counts[t]);
+		}
+		int distinct = countDistinct(sorted[numTests]);
+		int[] totalValues = new int[distinct];
+		long[] totalCounts = new long[distinct];
+		distribute(sorted[numTests], totalValues, totalCounts);
+
+		return new CourseStatistics(numStudents, numWithResults,
+				numSatisfactory, true, Arrays.copyOf(sums, numTests),
+				sums[numTests], values, counts, totalValues, totalCounts);
+	}
+
+	// Return the number of distinct values in a sorted array
+	private static int countDistinct(int[] sorted) {
+		int distinct = 0;
+		for (int i = 0; i < sorted.length; i++) {
+			if (i == 0 || sorted[i] != sorted[i - 1]) {
+				distinct++;
+			}
+		}
+		return distinct;
+	}
+
+	// Count the runs of equal values in a sorted array
+	private static void distribute(int[] sorted, int[] values,
+			long[] counts) {
+		int n = -1;
+		for (int i = 0; i < sorted.length; i++) {
+			if (i == 0 || sorted[i] != sorted[i - 1]) {
+				values[++n] = sorted[i];
+			}
+			counts[n]++;
+		}
+	}
+}
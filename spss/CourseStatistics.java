@@ -0,0 +1,167 @@
+package spss;
+
+/*
+ * Course-wide statistics over the best submissions of the students of a
+ * SPSS: for each test the mean, minimum, maximum and percentiles of the
+ * students' scores, the same for their totals, and the share of students
+ * whose results are satisfactory.  Students without a submission are
+ * counted in the number of students but not in the distributions.
+ *
+ * Each distribution is kept as ascending values with the number of
+ * students having each value.  Statistics computed by SPSS.statistics() are
+ * exact; those kept up to date by SPSS.liveStatistics() group scores of
+ * 128 and above into buckets about 1.5 percent wide, and report the lowest
+ * value of a bucket.
+ */
+public class CourseStatistics {
+	private final int numStudents;
+	private final int numWithResults;
+	private final int numSatisfactory;
+	private final boolean exact;
+	// Sum of the scores of each test, and of the totals
+	private final long[] sums;
+	private final long totalSum;
+	// Distinct values of each test in ascending order, and their counts
+	private final int[][] values;
+	private final long[][] counts;
+	private final int[] totalValues;
+	private final long[] totalCounts;
+
+	/*
+	 * Constructs statistics from their distributions.
+	 *
+	 * parameter numStudents The number of students.
+	 * parameter numWithResults The number of students with a submission.
+	 * parameter numSatisfactory The number of satisfactory students.
+	 * parameter exact True if the values are exact.
+	 * parameter sums The sum of the scores of each test.
+	 * parameter totalSum The sum of the totals.
+	 * parameter values The values of each test, ascending.
+	 * parameter counts The number of students with each value.
+	 * parameter totalValues The values of the totals, ascending.
+	 * parameter totalCounts The number of students with each total.
+	 */
+	CourseStatistics(int numStudents, int numWithResults,
+			int numSatisfactory, boolean exact, long[] sums, long totalSum,
+			int[][] values, long[][] counts, int[] totalValues,
+			long[] totalCounts) {
+		this.numStudents = numStudents;
+		this.numWithResults = numWithResults;
+		this.numSatisfactory = numSatisfactory;
+		this.exact = exact;
+		this.sums = sums;
+		this.totalSum = totalSum;
+		this.values = values;
+		this.counts = counts;
+		this.totalValues = totalValues;
+		this.totalCounts = totalCounts;
+	}
+
+	// Getter for numStudents
+	public int getNumStudents() {
+		return numStudents;
+	}
+
+	// Getter for numWithResults, the number of students with a submission
+	public int getNumWithResults() {
+		return numWithResults;
+	}
+
+	// Return the number of tests
+	public int getNumTests() {
+		return sums.length;
+	}
+
+	// Return true if the statistics are exact rather than bucketed
+	public boolean isExact() {
+		return exact;
+	}
+
+	// Return the share of all students whose results are satisfactory
+	public double getSatisfactoryRate() {
+		return numStudents == 0 ? 0 : (double) numSatisfactory / numStudents;
+	}
+
+	// Return the mean score of a test, or 0 if no student has a result
+	public double mean(int test) {
+		return numWithResults == 0 ? 0 : (double) sums[test] / numWithResults;
+	}
+
+	// Return the lowest score of a test, or -1 if no student has a result
+	public int min(int test) {
+		return percentile(values[test], counts[test], 0);
+	}
+
+	// Return the highest score of a test, or -1 if no student has a result
+	public int max(int test) {
+		return percentile(values[test], counts[test], 100);
+	}
+
+	/*
+	 * Returns a percentile of the scores of a test: the lowest score that
+	 * at least the given percent of students have or are below.
+	 *
+	 * parameter test The index of the test.
+	 * parameter percent The percent, from 0 for the lowest score to 100 for
+	 * the highest.
+	 * return The percentile, or -1 if no student has a result.
+	 */
+	public int percentile(int test, double percent) {
+		return percentile(values[test], counts[test], percent);
+	}
+
+	// Return the mean total, or 0 if no student has a result
+	public double meanTotal() {
+		return numWithResults == 0 ? 0 : (double) totalSum / numWithResults;
+	}
+
+	// Return a percentile of the totals, as percentile() does for a test
+	public int totalPercentile(double percent) {
+		return percentile(totalValues, totalCounts, percent);
+	}
+
+	/*
+	 * Returns a histogram of the totals: the number of students whose total
+	 * falls into each bucket, where bucket i holds the totals from
+	 * i * bucketWidth up to (i + 1) * bucketWidth - 1.
+	 *
+	 * parameter bucketWidth The width of a bucket, at least 1.
+	 * return The number of students in each bucket, up to the bucket of
+	 * the highest total.
+	 */
+	public long[] totalsHistogram(int bucketWidth) {
+		bucketWidth = Math.max(1, bucketWidth);
+		if (totalValues.length == 0) {
+			return new long[0];
+		}
+		long[] histogram =
+				new long[totalValues[totalValues.length - 1] / bucketWidth + 1];
+		for (int i = 0; i < totalValues.length; i++) {
+			histogram[totalValues[i] / bucketWidth] += totalCounts[i];
+		}
+		return histogram;
+	}
+
+	// Return the lowest value that at least percent of the counts are at or
+	// below, or -1 if there are no values
+	private static int percentile(int[] values, long[] counts,
+			double percent) {
+		if (values.length == 0) {
+			return -1;
+		}
+		long total = 0;
+		for (long count : counts) {
+			total += count;
+		}
+		long rank = Math.max(1,
+				(long) Math.ceil(total * Math.min(100, percent) / 100.0));
+		long seen = 0;
+		for (int i = 0; i < values.length; i++) {
+			seen += counts[i];
+			if (seen >= rank) {
+				return values[i];
+			}
+		}
+		return values[values.length - 1];
+	}
+}
@@ -0,0 +1,53 @@
+package spss;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/*
+ * A DeadLetterSink writing rejected lines to a file through a buffer, one
+ * per line in the form
+ *
+ *   fileName:lineNumber: REASON: line
+ *
+ * Lines from concurrent readers are written whole, one at a time.  The file
+ * is complete once the sink is closed.
+ */
+public class DeadLetterFile implements DeadLetterSink, Closeable {
+	private final BufferedWriter out;
+
+	/*
+	 * Creates the file, replacing an existing one.
+	 *
+	 * parameter file The file to write rejected lines to.
+	 * throws IOException If the file cannot be created.
+	 */
+	public DeadLetterFile(Path file) throws IOException {
+		this.out = Files.newBufferedWriter(file, StandardCharsets.UTF_8);
+	}
+
+	@Override
+	public synchronized void reject(String fileName, long lineNumber,
+			RejectReason reason, String line) {
+		try {
+			out.write(fileName + ":" + lineNumber + ": " + reason + ": " + line);
+			out.newLine();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	// Write the buffered lines to the file
+	public synchronized void flush() throws IOException {
+		out.flush();
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		out.close();
+	}
+}
@@ -0,0 +1,19 @@
+package spss;
+
+/*
+ * Receives the lines rejected while reading submission files, so they can
+ * be looked at and fixed without reading the files again.  Files are read
+ * concurrently, so a sink may be called from several threads at once.
+ */
+public interface DeadLetterSink {
+	/*
+	 * Receives a rejected line.
+	 *
+	 * parameter fileName The name of the file the line is in.
+	 * parameter lineNumber The number of the line, counting from 1.
+	 * parameter reason The reason the line was rejected.
+	 * parameter line The text of the line, without its line break.
+	 */
+	void reject(String fileName, long lineNumber, RejectReason reason,
+			String line);
+}
@@ -0,0 +1,66 @@
+package spss;
+
+/*
+ * The outcome of reading one submission file once: how many lines were
+ * read, how many of them were rejected for each reason, and the exception
+ * that stopped the read if it failed.
+ */
+public class FileSummary {
+	private final String fileName;
+	private final long numLines;
+	// Number of rejected lines by the ordinal of their RejectReason
+	private final long[] rejected;
+	private final Exception failure;
+
+	/*
+	 * Constructs a summary.
+	 *
+	 * parameter fileName The name of the file.
+	 * parameter numLines The number of lines read.
+	 * parameter rejected The number of rejected lines for each reason, by
+	 * ordinal.  The array is not copied.
+	 * parameter failure The exception that stopped the read, or null.
+	 */
+	FileSummary(String fileName, long numLines, long[] rejected,
+			Exception failure) {
+		this.fileName = fileName;
+		this.numLines = numLines;
+		this.rejected = rejected;
+		this.failure = failure;
+	}
+
+	// Getter for fileName
+	public String getFileName() {
+		return fileName;
+	}
+
+	// Getter for failure, which is null if the file was read to its end
+	public Exception getFailure() {
+		return failure;
+	}
+
+	// Getter for numLines
+	public long getNumLines() {
+		return numLines;
+	}
+
+	// Return the number of lines whose submission was added
+	public long getNumAccepted() {
+		return numLines - getNumRejected();
+	}
+
+	// Return the number of rejected lines
+	public long getNumRejected() {
+		long total = 0;
+		for (long count : rejected) {
+			total += count;
+		}
+		return total;
+	}
+
+	// Return the number of lines rejected for a reason
+	public long getNumRejected(RejectReason reason) {
+		return rejected[reason.ordinal()];
+	}
+
+}
@@ -0,0 +1,34 @@
+package spss;
+
+/*
+ * Keeps results in the Student objects themselves, each best submission
+ * an immutable Submission on the heap.  This is the default store.
+ */
+class HeapResults implements ResultStore {
+
+	@Override
+	public int numSubmissions(Student std) {
+		return std.getNumSubmissions();
+	}
+
+	@Override
+	public void setNumSubmissions(Student std, int count) {
+		std.setNumSubmissions(count);
+	}
+
+	@Override
+	public Submission best(Student std) {
+		return std.getSubmissions();
+	}
+
+	@Override
+	public int bestTotal(Student std) {
+		Submission best = std.getSubmissions();
+		return best.hasResults() ? best.getTotalScore() : -1;
+	}
+
+	@Override
+	public void setBest(Student std, int[] scores) {
+		std.setSubmissions(new Submission(scores));
+	}
+}
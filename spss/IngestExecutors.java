@@ -0,0 +1,137 @@
+package spss;
+
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+ * Factory methods for executors to read submission files with, for use with
+ * SPSS.readSubmissionsConcurrently(List, Executor).  Both kinds of executor
+ * limit how many files are read at once and how many are waiting, so the
+ * number of threads and the memory used stay the same however many files
+ * are passed: when the limit is reached, submitting another file waits.
+ */
+public final class IngestExecutors {
+	private static final AtomicInteger threadNumber = new AtomicInteger();
+
+	private IngestExecutors() {
+	}
+
+	/*
+	 * Creates a pool of platform threads.  At most one file per thread is
+	 * queued; beyond that the submitting thread reads the file itself.
+	 * Once the pool is shut down, files are rejected.
+	 *
+	 * parameter threads The number of threads.
+	 * return The executor, which the caller must shut down.
+	 */
+	public static ExecutorService bounded(int threads) {
+		threads = Math.max(1, threads);
+		ThreadFactory factory = task -> {
+			Thread thread = new Thread(task,
+					"spss-ingest-" + threadNumber.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		};
+		return new ThreadPoolExecutor(threads, threads, 0L,
+				TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(threads),
+				factory, IngestExecutors::runInCaller);
+	}
+
+	// Run a task the pool has no room for in the submitting thread, or
+	// reject it once the pool is shut down, so the caller learns that the
+	// task will never run
+	private static void runInCaller(Runnable task, ThreadPoolExecutor pool) {
+		if (pool.isShutdown()) {
+			throw new RejectedExecutionException("The executor is shut down");
+		}
+		task.run();
+	}
+
+	/*
+	 * Creates an executor running each file on its own virtual thread, with
+	 * at most the given number of files read at once.  Virtual threads need
+	 * JDK 21 or later; on older JDKs a bounded pool of platform threads is
+	 * returned instead.
+	 *
+	 * parameter maxConcurrent The maximum number of files read at once.
+	 * return The executor, which the caller must shut down.
+	 */
+	public static ExecutorService virtualThreads(int maxConcurrent) {
+		maxConcurrent = Math.max(1, maxConcurrent);
+		ExecutorService virtual;
+		try {
+			virtual = (ExecutorService) Executors.class
+					.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		} catch (ReflectiveOperationException e) {
+			return bounded(Math.min(maxConcurrent,
+					Runtime.getRuntime().availableProcessors()));
+		}
+		return new Throttled(virtual, maxConcurrent);
+	}
+
+	/*
+	 * An executor that lets at most a fixed number of tasks of another
+	 * executor run at once, making execute() wait for a free permit.
+	 */
+	private static class Throttled extends AbstractExecutorService {
+		private final ExecutorService delegate;
+		private final Semaphore permits;
+
+		Throttled(ExecutorService delegate, int maxConcurrent) {
+			this.delegate = delegate;
+			this.permits = new Semaphore(maxConcurrent);
+		}
+
+		@Override
+		public void execute(Runnable task) {
+			permits.acquireUninterruptibly();
+			try {
+				delegate.execute(() -> {
+					try {
+						task.run();
+					} finally {
+						permits.release();
+					}
+				});
+			} catch (RuntimeException e) {
+				permits.release();
+				throw e;
+			}
+		}
+
+		@Override
+		public void shutdown() {
+			delegate.shutdown();
+		}
+
+		@Override
+		public List<Runnable> shutdownNow() {
+			return delegate.shutdownNow();
+		}
+
+		@Override
+		public boolean isShutdown() {
+			return delegate.isShutdown();
+		}
+
+		@Override
+		public boolean isTerminated() {
+			return delegate.isTerminated();
+		}
+
+		@Override
+		public boolean awaitTermination(long timeout, TimeUnit unit)
+				throws InterruptedException {
+			return delegate.awaitTermination(timeout, unit);
+		}
+	}
+}
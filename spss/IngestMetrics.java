@@ -0,0 +1,309 @@
+package spss;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/*
+ * Counters describing the submissions added to a SPSS: how many were
+ * accepted, how many were rejected and why, how often a best submission was
+ * replaced, how long threads waited for submission locks, and how fast each
+ * file was read.
+ *
+ * Events are counted with LongAdders, which threads update without
+ * contending and without allocating, so the metrics are always on.  Read
+ * them with snapshot() or through JMX after registerMBean().
+ */
+public class IngestMetrics implements IngestMetricsMXBean {
+	private static final RejectReason[] REASONS = RejectReason.values();
+	// Number of file reads whose statistics are kept
+	private static final int MAX_RECENT_FILES = 256;
+
+	private final LongAdder accepted = new LongAdder();
+	private final LongAdder[] rejected = new LongAdder[REASONS.length];
+	private final LongAdder bestReplacements = new LongAdder();
+	private final LongAdder countOnlyUpdates = new LongAdder();
+	private final LongAdder contendedLocks = new LongAdder();
+	private final LongAdder lockWaitNanos = new LongAdder();
+	private final LongAdder filesRead = new LongAdder();
+	private final LongAdder linesRead = new LongAdder();
+	private final LongAdder readNanos = new LongAdder();
+	// Statistics of the most recent file reads, oldest first
+	private final ArrayDeque<FileStats> files = new ArrayDeque<>();
+	private ObjectName objectName;
+
+	/*
+	 * The statistics of reading one file once.  A file read several times
+	 * has statistics for each read.  The time includes applying the
+	 * submissions and waiting for the write-ahead log, not only parsing.
+	 */
+	public static class FileStats {
+		private final String fileName;
+		private final long lines;
+		private final long readNanos;
+
+		FileStats(String fileName, long lines, long readNanos) {
+			this.fileName = fileName;
+			this.lines = lines;
+			this.readNanos = readNanos;
+		}
+
+		// Getter for fileName
+		public String getFileName() {
+			return fileName;
+		}
+
+		// Getter for lines
+		public long getLines() {
+			return lines;
+		}
+
+		// Getter for readNanos
+		public long getReadNanos() {
+			return readNanos;
+		}
+
+		// Return the number of lines read per second
+		public double getLinesPerSecond() {
+			return readNanos == 0 ? 0 : lines * 1e9 / readNanos;
+		}
+	}
+
+	/*
+	 * The values of all counters at one point in time.  Counters are read one
+	 * after another while other threads may update them, so the values are
+	 * not taken at exactly the same instant.
+	 */
+	public static class Snapshot {
+		private final long accepted;
+		private final Map<RejectReason, Long> rejected;
+		private final long bestReplacements;
+		private final long countOnlyUpdates;
+		private final long contendedLocks;
+		private final long lockWaitNanos;
+		private final List<FileStats> files;
+
+		Snapshot(IngestMetrics metrics) {
+			accepted = metrics.accepted.sum();
+			Map<RejectReason, Long> byReason = new EnumMap<>(
+					RejectReason.class);
+			for (RejectReason reason : REASONS) {
+				byReason.put(reason, metrics.rejected[reason.ordinal()].sum());
+			}
+			rejected = Collections.unmodifiableMap(byReason);
+			bestReplacements = metrics.bestReplacements.sum();
+			countOnlyUpdates = metrics.countOnlyUpdates.sum();
+			contendedLocks = metrics.contendedLocks.sum();
+			lockWaitNanos = metrics.lockWaitNanos.sum();
+			files = Collections.unmodifiableList(metrics.getRecentFiles());
+		}
+
+		// Getter for accepted
+		public long getAccepted() {
+			return accepted;
+		}
+
+		// Return the number of submissions rejected for any reason
+		public long getRejected() {
+			long sum = 0;
+			for (long count : rejected.values()) {
+				sum += count;
+			}
+			return sum;
+		}
+
+		// Return the number of submissions rejected for the given reason
+		public long getRejected(RejectReason reason) {
+			return rejected.get(reason);
+		}
+
+		// Getter for bestReplacements
+		public long getBestReplacements() {
+			return bestReplacements;
+		}
+
+		// Getter for countOnlyUpdates
+		public long getCountOnlyUpdates() {
+			return countOnlyUpdates;
+		}
+
+		// Getter for contendedLocks
+		public long getContendedLocks() {
+			return contendedLocks;
+		}
+
+		// Getter for lockWaitNanos
+		public long getLockWaitNanos() {
+			return lockWaitNanos;
+		}
+
+		// Return the statistics of the most recent file reads, oldest first
+		public List<FileStats> getFiles() {
+			return files;
+		}
+	}
+
+	/*
+	 * Constructs metrics with all counters at 0.
+	 */
+	IngestMetrics() {
+		for (int i = 0; i < rejected.length; i++) {
+			rejected[i] = new LongAdder();
+		}
+	}
+
+	// Record accepted submissions
+	void accepted(int count) {
+		accepted.add(count);
+	}
+
+	// Record a rejected submission
+	void rejected(RejectReason reason) {
+		rejected[reason.ordinal()].increment();
+	}
+
+	/*
+	 * Records that submissions of a student were applied.
+	 *
+	 * parameter count The number of submissions.
+	 * parameter replacements The number of them that replaced the
+	 * student's best submission.
+	 */
+	void applied(int count, int replacements) {
+		if (replacements > 0) {
+			bestReplacements.add(replacements);
+		}
+		if (count > replacements) {
+			countOnlyUpdates.add(count - replacements);
+		}
+	}
+
+	// Record that a thread waited the given time for a submission lock
+	void lockWaited(long nanos) {
+		contendedLocks.increment();
+		lockWaitNanos.add(nanos);
+	}
+
+	// Record that a file was read
+	void fileRead(String fileName, long lines, long nanos) {
+		filesRead.increment();
+		linesRead.add(lines);
+		readNanos.add(nanos);
+		FileStats stats = new FileStats(fileName, lines, nanos);
+		synchronized (files) {
+			if (files.size() == MAX_RECENT_FILES) {
+				files.removeFirst();
+			}
+			files.addLast(stats);
+		}
+	}
+
+	// Return the current values of all counters
+	public Snapshot snapshot() {
+		return new Snapshot(this);
+	}
+
+	/*
+	 * Registers these metrics with the platform MBean server, under the name
+	 * spss:type=IngestMetrics,id=<id>.  Registering again does nothing.
+	 *
+	 * return The name the metrics are registered under.
+	 */
+	public synchronized ObjectName registerMBean() throws JMException {
+		if (objectName == null) {
+			ObjectName name = new ObjectName("spss:type=IngestMetrics,id="
+					+ Integer.toHexString(System.identityHashCode(this)));
+			ManagementFactory.getPlatformMBeanServer().registerMBean(this,
+					name);
+			objectName = name;
+		}
+		return objectName;
+	}
+
+	/*
+	 * Unregisters these metrics from the platform MBean server, if they are
+	 * registered.
+	 */
+	public synchronized void unregisterMBean() throws JMException {
+		if (objectName != null) {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			server.unregisterMBean(objectName);
+			objectName = null;
+		}
+	}
+
+	@Override
+	public long getAccepted() {
+		return accepted.sum();
+	}
+
+	@Override
+	public long getRejected() {
+		long sum = 0;
+		for (LongAdder count : rejected) {
+			sum += count.sum();
+		}
+		return sum;
+	}
+
+	@Override
+	public Map<String, Long> getRejectedByReason() {
+		Map<String, Long> byReason = new LinkedHashMap<>();
+		for (RejectReason reason : REASONS) {
+			byReason.put(reason.name(), rejected[reason.ordinal()].sum());
+		}
+		return byReason;
+	}
+
+	@Override
+	public long getBestReplacements() {
+		return bestReplacements.sum();
+	}
+
+	@Override
+	public long getCountOnlyUpdates() {
+		return countOnlyUpdates.sum();
+	}
+
+	@Override
+	public long getContendedLocks() {
+		return contendedLocks.sum();
+	}
+
+	@Override
+	public long getLockWaitNanos() {
+		return lockWaitNanos.sum();
+	}
+
+	@Override
+	public long getFilesRead() {
+		return filesRead.sum();
+	}
+
+	@Override
+	public long getLinesRead() {
+		return linesRead.sum();
+	}
+
+	@Override
+	public long getReadNanos() {
+		return readNanos.sum();
+	}
+
+	@Override
+	public List<FileStats> getRecentFiles() {
+		synchronized (files) {
+			return new ArrayList<>(files);
+		}
+	}
+}
@@ -0,0 +1,47 @@
+package spss;
+
+import java.util.List;
+import java.util.Map;
+
+/*
+ * The JMX view of IngestMetrics.  All counts are since the server was
+ * created.
+ */
+public interface IngestMetricsMXBean {
+
+	// Return the number of submissions accepted
+	long getAccepted();
+
+	// Return the number of submissions rejected for any reason
+	long getRejected();
+
+	// Return the number of submissions rejected for each reason
+	Map<String, Long> getRejectedByReason();
+
+	// Return the number of times a student's best submission was replaced
+	long getBestReplacements();
+
+	// Return the number of submissions that were only counted
+	long getCountOnlyUpdates();
+
+	// Return the number of times a thread had to wait for a submission lock
+	long getContendedLocks();
+
+	// Return the total time threads waited for submission locks
+	long getLockWaitNanos();
+
+	// Return the number of files read
+	long getFilesRead();
+
+	// Return the number of lines read from files
+	long getLinesRead();
+
+	// Return the total time spent reading files, from opening each file
+	// until its submissions are applied and, with a write-ahead log, on disk
+	long getReadNanos();
+
+	// Return the statistics of the most recent file reads, oldest first,
+	// which JMX clients see as CompositeData with the FileStats getters as
+	// items
+	List<IngestMetrics.FileStats> getRecentFiles();
+}
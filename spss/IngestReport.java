@@ -0,0 +1,81 @@
+package spss;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * The outcome of reading a list of submission files: the files that could
+ * not be read, each with the exception that stopped it, and a summary of
+ * the lines of each file.  A file named several times is read, failed and
+ * summarized once per time it is named.  Failures and summaries are
+ * collected from the reading threads, so a report may be filled in
+ * concurrently.
+ */
+public class IngestReport {
+	// Every failure, with the name of its file, in the order they happened
+	private final List<Map.Entry<String, Exception>> failures =
+			new ArrayList<>();
+	private final List<FileSummary> summaries = new ArrayList<>();
+
+	/*
+	 * Records that a file could not be read.
+	 *
+	 * parameter fileName The name of the file.
+	 * parameter cause The exception that stopped reading the file.
+	 */
+	synchronized void addFailure(String fileName, Exception cause) {
+		failures.add(Map.entry(fileName, cause));
+	}
+
+	/*
+	 * Records the failures of another report.
+	 *
+	 * parameter other The other report.
+	 */
+	synchronized void addFailures(IngestReport other) {
+		List<Map.Entry<String, Exception>> copy;
+		synchronized (other) {
+			copy = new ArrayList<>(other.failures);
+		}
+		failures.addAll(copy);
+	}
+
+	/*
+	 * Records the summary of one read of a file, complete or up to a
+	 * failure.
+	 *
+	 * parameter summary The summary.
+	 */
+	synchronized void addSummary(FileSummary summary) {
+		summaries.add(summary);
+	}
+
+	// Return the files that could not be read, in the order they failed,
+	// with the first exception of a file that failed more than once
+	public synchronized Map<String, Exception> getFailures() {
+		Map<String, Exception> byName = new LinkedHashMap<>();
+		for (Map.Entry<String, Exception> failure : failures) {
+			byName.putIfAbsent(failure.getKey(), failure.getValue());
+		}
+		return Collections.unmodifiableMap(byName);
+	}
+
+	// Return the number of failed reads, counting each read of a file
+	public synchronized int getNumFailures() {
+		return failures.size();
+	}
+
+	// Return true if every file was read
+	public synchronized boolean isSuccessful() {
+		return failures.isEmpty();
+	}
+
+	// Return the summary of every read of a file, in the order they
+	// finished
+	public synchronized List<FileSummary> getSummaries() {
+		return Collections.unmodifiableList(new ArrayList<>(summaries));
+	}
+}
@@ -0,0 +1,244 @@
+package spss;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/*
+ * Ranks students by the total score of their best submission.  SPSS updates
+ * the leaderboard whenever a student's best total changes, so it is always
+ * current, and it can be queried while submissions are being added.
+ *
+ * Students are split into partitions by their index, each an order
+ * statistic tree (a treap whose nodes know the size of their subtree) with
+ * its own lock.  SPSS uses one partition per lock stripe, so two threads
+ * only update the same partition when they hold the same stripe.  Queries
+ * visit every partition, costing O(p log n) for p partitions, and merge the
+ * results.
+ */
+class Leaderboard {
+
+	/*
+	 * A node of a treap, ordered by descending total and then ascending
+	 * student index.
+	 */
+	private static class Node {
+		final Student student;
+		final int total;
+		final int priority;
+		int size = 1;
+		Node left;
+		Node right;
+
+		Node(Student student, int total) {
+			this.student = student;
+			this.total = total;
+			this.priority = ThreadLocalRandom.current().nextInt();
+		}
+	}
+
+	/*
+	 * One partition of the leaderboard.
+	 */
+	private static class Partition {
+		final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+		Node root;
+	}
+
+	private final Partition[] partitions;
+
+	/*
+	 * Constructs an empty leaderboard.
+	 *
+	 * parameter numPartitions The number of partitions, a power of two.
+	 */
+	Leaderboard(int numPartitions) {
+		partitions = new Partition[numPartitions];
+		for (int i = 0; i < numPartitions; i++) {
+			partitions[i] = new Partition();
+		}
+	}
+
+	/*
+	 * Moves a student to a new total.  Updates for the same student must not
+	 * run concurrently.
+	 *
+	 * parameter std The student.
+	 * parameter oldTotal The student's previous best total, or -1 if the
+	 * student had no submission yet.
+	 * parameter newTotal The student's new best total.
+	 */
+	void update(Student std, int oldTotal, int newTotal) {
+		if (oldTotal == newTotal) {
+			return;
+		}
+		Partition partition = partitionOf(std);
+		partition.lock.writeLock().lock();
+		try {
+			if (oldTotal >= 0) {
+				partition.root = remove(partition.root, oldTotal,
+						std.getIndex());
+			}
+			partition.root = insert(partition.root, new Node(std, newTotal));
+		} finally {
+			partition.lock.writeLock().unlock();
+		}
+	}
+
+	/*
+	 * Counts the students whose best total is at least the given score.
+	 *
+	 * parameter score The score.
+	 * return The number of students with a best total of at least score.
+	 */
+	int countAtLeast(int score) {
+		int count = 0;
+		for (Partition partition : partitions) {
+			partition.lock.readLock().lock();
+			try {
+				count += countAtLeast(partition.root, score);
+			} finally {
+				partition.lock.readLock().unlock();
+			}
+		}
+		return count;
+	}
+
+	/*
+	 * Returns the students with the highest best totals, highest first.
+	 * Students with the same total are ordered by their index.
+	 *
+	 * parameter k The maximum number of students to return.
+	 * return Up to k students.
+	 */
+	List<Student> top(int k) {
+		// Take the top k of each partition, and merge them
+		PriorityQueue<Node> merged = new PriorityQueue<>(Leaderboard::compare);
+		for (Partition partition : partitions) {
+			partition.lock.readLock().lock();
+			try {
+				collect(partition.root, k, merged);
+			} finally {
+				partition.lock.readLock().unlock();
+			}
+		}
+		List<Student> top = new ArrayList<>(Math.min(k, merged.size()));
+		while (top.size() < k && !merged.isEmpty()) {
+			top.add(merged.poll().student);
+		}
+		return top;
+	}
+
+	// Return the partition a student belongs to
+	private Partition partitionOf(Student std) {
+		return partitions[std.getIndex() & (partitions.length - 1)];
+	}
+
+	// Compare two nodes by descending total, then by ascending index
+	private static int compare(Node a, Node b) {
+		return compare(a.total, a.student.getIndex(), b);
+	}
+
+	private static int compare(int total, int index, Node node) {
+		if (total != node.total) {
+			return total > node.total ? -1 : 1;
+		}
+		return Integer.compare(index, node.student.getIndex());
+	}
+
+	private static int size(Node node) {
+		return node == null ? 0 : node.size;
+	}
+
+	private static Node update(Node node) {
+		node.size = 1 + size(node.left) + size(node.right);
+		return node;
+	}
+
+	// Insert a node into a treap, returning the new root
+	private static Node insert(Node root, Node node) {
+		if (root == null) {
+			return node;
+		}
+		if (compare(node, root) < 0) {
+			root.left = insert(root.left, node);
+			if (root.left.priority > root.priority) {
+				Node left = root.left;
+				root.left = left.right;
+				left.right = update(root);
+				return update(left);
+			}
+		} else {
+			root.right = insert(root.right, node);
+			if (root.right.priority > root.priority) {
+				Node right = root.right;
+				root.right = right.left;
+				right.left = update(root);
+				return update(right);
+			}
+		}
+		return update(root);
+	}
+
+	// Remove the node with the given key from a treap, returning the new root
+	private static Node remove(Node root, int total, int index) {
+		if (root == null) {
+			return null;
+		}
+		int cmp = compare(total, index, root);
+		if (cmp < 0) {
+			root.left = remove(root.left, total, index);
+		} else if (cmp > 0) {
+			root.right = remove(root.right, total, index);
+		} else {
+			return merge(root.left, root.right);
+		}
+		return update(root);
+	}
+
+	// Merge two treaps whose keys are all in order, returning the new root
+	private static Node merge(Node left, Node right) {
+		if (left == null) {
+			return right;
+		}
+		if (right == null) {
+			return left;
+		}
+		if (left.priority > right.priority) {
+			left.right = merge(left.right, right);
+			return update(left);
+		}
+		right.left = merge(left, right.left);
+		return update(right);
+	}
+
+	// Count the nodes of a treap whose total is at least the given score
+	private static int countAtLeast(Node node, int score) {
+		int count = 0;
+		while (node != null) {
+			if (node.total >= score) {
+				count += size(node.left) + 1;
+				node = node.right;
+			} else {
+				node = node.left;
+			}
+		}
+		return count;
+	}
+
+	// Add the first k nodes of a treap in order to a queue
+	private static int collect(Node node, int k, PriorityQueue<Node> queue) {
+		if (node == null || k <= 0) {
+			return 0;
+		}
+		int added = collect(node.left, k, queue);
+		if (added < k) {
+			queue.add(node);
+			added++;
+			added += collect(node.right, k - added, queue);
+		}
+		return added;
+	}
+}
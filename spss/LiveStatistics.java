@@ -0,0 +1,161 @@
+package spss;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * Course-wide statistics kept up to date as best submissions change, so
+ * reading them costs the same however many students there are.  Each test
+ * and the totals have a histogram of the students' best scores: exact for
+ * scores below 128, and above that 64 buckets per power of two.  Replacing
+ * a student's best submission moves them from the buckets of the old
+ * scores to those of the new.
+ *
+ * Updates use atomic counters only, so they can be made concurrently from
+ * every lock stripe.  A snapshot taken while submissions are added may
+ * include part of an update.
+ */
+class LiveStatistics {
+	private static final int SUB_BUCKETS = 64;
+	// Enough buckets for every non-negative int
+	private static final int NUM_BUCKETS = 26 * SUB_BUCKETS;
+
+	private final int numTests;
+	private final AtomicLongArray[] buckets;
+	private final AtomicLongArray totalBuckets;
+	private final LongAdder[] sums;
+	private final LongAdder totalSum = new LongAdder();
+	private final LongAdder numWithResults = new LongAdder();
+	private final LongAdder numSatisfactory = new LongAdder();
+
+	/*
+	 * Constructs statistics with no students.
+	 *
+	 * parameter numTests The number of tests.
+	 */
+	LiveStatistics(int numTests) {
+		this.numTests = numTests;
+		buckets = new AtomicLongArray[numTests];
+		sums = new LongAdder[numTests];
+		for (int t = 0; t < numTests; t++) {
+			buckets[t] = new AtomicLongArray(NUM_BUCKETS);
+			sums[t] = new LongAdder();
+		}
+		totalBuckets = new AtomicLongArray(NUM_BUCKETS);
+	}
+
+	/*
+	 * Replaces a student's best submission in the statistics.  Must be
+	 * called while holding the student's lock stripe.
+	 *
+	 * parameter old The previous best submission, or Submission.NONE.
+	 * parameter now The new best submission.
+	 */
+	void replace(Submission old, Submission now) {
+		update(old, -1);
+		update(now, 1);
+	}
+
+	// Add a submission to the statistics, or with a delta of -1 remove it
+	private void update(Submission submission, int delta) {
+		if (!submission.hasResults()) {
+			return;
+		}
+		int[] scores = submission.getScores();
+		for (int t = 0; t < numTests; t++) {
+			buckets[t].addAndGet(bucket(scores[t]), delta);
+			sums[t].add(delta * (long) scores[t]);
+		}
+		totalBuckets.addAndGet(bucket(submission.getTotalScore()), delta);
+		totalSum.add(delta * (long) submission.getTotalScore());
+		numWithResults.add(delta);
+		if (SPSS.isSatisfactory(submission)) {
+			numSatisfactory.add(delta);
+		}
+	}
+
+	/*
+	 * Returns the current statistics.
+	 *
+	 * parameter numStudents The number of students of the server.
+	 * return The statistics.
+	 */
+	CourseStatistics snapshot(int numStudents) {
+		int[][] values = new int[numTests][];
+		long[][] counts = new long[numTests][];
+		long[] testSums = new long[numTests];
+		for (int t = 0; t < numTests; t++) {
+			long[] copy = copy(buckets[t]);
+			values[t] = values(copy);
+			counts[t] = counts(copy);
+			testSums[t] = sums[t].sum();
+		}
+		long[] totals = copy(totalBuckets);
+		return new CourseStatistics(numStudents, numWithResults.intValue(),
+				numSatisfactory.intValue(), false, testSums, totalSum.sum(),
+				values, counts, values(totals), counts(totals));
+	}
+
+	// Copy the counts of a histogram
+	private static long[] copy(AtomicLongArray histogram) {
+		long[] copy = new long[histogram.length()];
+		for (int i = 0; i < copy.length; i++) {
+			copy[i] = histogram.get(i);
+		}
+		return copy;
+	}
+
+	// Return the lowest values of the non-empty buckets of a histogram
+	private static int[] values(long[] histogram) {
+		int n = 0;
+		for (long count : histogram) {
+			if (count > 0) {
+				n++;
+			}
+		}
+		int[] values = new int[n];
+		n = 0;
+		for (int i = 0; i < histogram.length; i++) {
+			if (histogram[i] > 0) {
+				values[n++] = lowest(i);
+			}
+		}
+		return values;
+	}
+
+	// Return the counts of the non-empty buckets of a histogram
+	private static long[] counts(long[] histogram) {
+		int n = 0;
+		for (long count : histogram) {
+			if (count > 0) {
+				n++;
+			}
+		}
+		long[] counts = new long[n];
+		n = 0;
+		for (long count : histogram) {
+			if (count > 0) {
+				counts[n++] = count;
+			}
+		}
+		return counts;
+	}
+
+	// Return the bucket a score falls into
+	private static int bucket(int value) {
+		if (value < 2 * SUB_BUCKETS) {
+			return value;
+		}
+		int shift = 31 - Integer.numberOfLeadingZeros(value) - 6;
+		return shift * SUB_BUCKETS + (value >>> shift);
+	}
+
+	// Return the smallest score falling into a bucket
+	private static int lowest(int bucket) {
+		if (bucket < 2 * SUB_BUCKETS) {
+			return bucket;
+		}
+		int shift = bucket / SUB_BUCKETS - 1;
+		return (bucket - shift * SUB_BUCKETS) << shift;
+	}
+}
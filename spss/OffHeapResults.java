@@ -0,0 +1,156 @@
+package spss;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/*
+ * Keeps results outside the Java heap, in direct buffers, so a course with
+ * millions of students adds little for the garbage collector to trace.
+ * Every student has a fixed width row of ints, found by the student's index:
+ *
+ *   version  even while the row is stable, odd while it is being written
+ *   count    the number of submissions
+ *   total    the total of the best submission, or -1 if there is none
+ *   scores   numTests ints, the best submission
+ *
+ * Rows are allocated in segments of SEGMENT_ROWS rows as students get
+ * results.  A best submission is replaced under the version, like a
+ * sequence lock: readers copy the row and try again if the version changed
+ * meanwhile, so they never block writers and never see half a row.
+ */
+class OffHeapResults implements ResultStore {
+	private static final int SEGMENT_ROWS = 4096;
+	private static final int VERSION = 0;
+	private static final int COUNT = 4;
+	private static final int TOTAL = 8;
+	private static final int SCORES = 12;
+	// Access to the ints of a buffer with memory ordering
+	private static final VarHandle INTS =
+			MethodHandles.byteBufferViewVarHandle(int[].class,
+					ByteOrder.nativeOrder());
+
+	private final int numTests;
+	private final int rowBytes;
+	// Segments of rows, null until a student in them gets a result
+	private volatile ByteBuffer[] segments = new ByteBuffer[0];
+
+	/*
+	 * Constructs an empty store.
+	 *
+	 * parameter numTests The number of tests, which is the width of a row.
+	 */
+	OffHeapResults(int numTests) {
+		this.numTests = numTests;
+		this.rowBytes = SCORES + 4 * numTests;
+	}
+
+	// Return the segment holding a student's row, or null if it has none
+	private ByteBuffer segment(Student std) {
+		ByteBuffer[] current = segments;
+		int segment = std.getIndex() / SEGMENT_ROWS;
+		return segment < current.length ? current[segment] : null;
+	}
+
+	// Return the segment holding a student's row, allocating it if needed
+	private ByteBuffer segmentForWrite(Student std) {
+		ByteBuffer buffer = segment(std);
+		return buffer != null ? buffer : allocate(std.getIndex()
+				/ SEGMENT_ROWS);
+	}
+
+	// Allocate a segment, with every row empty
+	private synchronized ByteBuffer allocate(int segment) {
+		ByteBuffer[] current = segments;
+		if (segment < current.length && current[segment] != null) {
+			return current[segment];
+		}
+		ByteBuffer buffer = ByteBuffer.allocateDirect(SEGMENT_ROWS * rowBytes)
+				.order(ByteOrder.nativeOrder());
+		for (int row = 0; row < SEGMENT_ROWS; row++) {
+			buffer.putInt(row * rowBytes + TOTAL, -1);
+		}
+		ByteBuffer[] grown = current;
+		if (segment >= grown.length) {
+			grown = Arrays.copyOf(current, Math.max(segment + 1,
+					current.length * 2));
+		} else {
+			grown = current.clone();
+		}
+		grown[segment] = buffer;
+		// Publish the segment, with its rows, to readers
+		segments = grown;
+		return buffer;
+	}
+
+	// Return the byte offset of a student's row in its segment
+	private int rowOffset(Student std) {
+		return (std.getIndex() % SEGMENT_ROWS) * rowBytes;
+	}
+
+	@Override
+	public int numSubmissions(Student std) {
+		ByteBuffer buffer = segment(std);
+		return buffer == null ? 0
+				: (int) INTS.getAcquire(buffer, rowOffset(std) + COUNT);
+	}
+
+	@Override
+	public void setNumSubmissions(Student std, int count) {
+		INTS.setRelease(segmentForWrite(std), rowOffset(std) + COUNT, count);
+	}
+
+	@Override
+	public Submission best(Student std) {
+		ByteBuffer buffer = segment(std);
+		if (buffer == null) {
+			return Submission.NONE;
+		}
+		int row = rowOffset(std);
+		int[] scores = new int[numTests];
+		while (true) {
+			int version = (int) INTS.getAcquire(buffer, row + VERSION);
+			if ((version & 1) != 0) {
+				// A writer is replacing the row
+				Thread.onSpinWait();
+				continue;
+			}
+			int total = (int) INTS.get(buffer, row + TOTAL);
+			for (int i = 0; i < numTests; i++) {
+				scores[i] = (int) INTS.get(buffer, row + SCORES + 4 * i);
+			}
+			VarHandle.loadLoadFence();
+			if ((int) INTS.getOpaque(buffer, row + VERSION) == version) {
+				return total < 0 ? Submission.NONE : new Submission(scores);
+			}
+		}
+	}
+
+	@Override
+	public int bestTotal(Student std) {
+		// Only the writer, which holds the student's lock, calls this
+		ByteBuffer buffer = segment(std);
+		return buffer == null ? -1
+				: (int) INTS.get(buffer, rowOffset(std) + TOTAL);
+	}
+
+	@Override
+	public void setBest(Student std, int[] scores) {
+		ByteBuffer buffer = segmentForWrite(std);
+		int row = rowOffset(std);
+		int total = 0;
+		for (int score : scores) {
+			total += score;
+		}
+		int version = (int) INTS.get(buffer, row + VERSION);
+		INTS.setOpaque(buffer, row + VERSION, version + 1);
+		VarHandle.storeStoreFence();
+		INTS.set(buffer, row + TOTAL, total);
+		for (int i = 0; i < numTests; i++) {
+			INTS.set(buffer, row + SCORES + 4 * i, scores[i]);
+		}
+		INTS.setRelease(buffer, row + VERSION, version + 2);
+	}
+}
@@ -0,0 +1,30 @@
+package spss;
+
+/*
+ * The reasons a submission can be rejected, as counted by IngestMetrics.
+ */
+public enum RejectReason {
+	// The name is null
+	NULL_NAME,
+	// The name is empty, or a line starts with whitespace
+	EMPTY_NAME,
+	// No student has the name
+	UNKNOWN_STUDENT,
+	// The list or array of test results is null
+	NULL_RESULTS,
+	// There are more or fewer test results than tests
+	WRONG_NUMBER_OF_TESTS,
+	// A test result in the list is null
+	NULL_SCORE,
+	// A test result is negative
+	NEGATIVE_SCORE,
+	// The test results add up to more than fits into an int
+	SCORE_OVERFLOW,
+	// A score on a line is not a number or does not fit into an int
+	MALFORMED_SCORE,
+	// A followed file was drained in the middle of a line, which may not
+	// have been completely written
+	INCOMPLETE_LINE,
+	// A line does not fit into the largest buffer a reader holds
+	LINE_TOO_LONG
+}
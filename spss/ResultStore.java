@@ -0,0 +1,33 @@
+package spss;
+
+/*
+ * Holds the number of submissions and the best submission of each student
+ * of a SPSS.  Writes for a student are made while holding the student's lock
+ * stripe, so there is one writer per student at a time; reads take no lock
+ * and always see a whole submission.
+ */
+interface ResultStore {
+
+	// Return the number of submissions of a student
+	int numSubmissions(Student std);
+
+	// Set the number of submissions of a student
+	void setNumSubmissions(Student std, int count);
+
+	// Return the best submission of a student, or Submission.NONE if they
+	// have none
+	Submission best(Student std);
+
+	// Return the total score of the best submission of a student, or -1 if
+	// they have none
+	int bestTotal(Student std);
+
+	/*
+	 * Replaces the best submission of a student.
+	 *
+	 * parameter std The student.
+	 * parameter scores The test results of the new best submission, which
+	 * are copied.
+	 */
+	void setBest(Student std, int[] scores);
+}
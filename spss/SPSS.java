@@ -1,12 +1,35 @@
 package spss;
 
-import java.io.BufferedReader;
 import java.io.FileInputStream;
-import java.io.FileNotFoundException;
-import java.io.FileReader;
 import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
 
 /*
  * The SPSS class represents a system for managing student submissions and 
@@ -15,21 +38,88 @@ import java.util.List;
  *  various criteria for student performance.
  */
 public class SPSS extends Thread {
+	// Number of names from which addStudents() checks names in parallel
+	private static final int PARALLEL_ROSTER = 65536;
+	// Number of submissions addSubmissionAsync() lets wait at once
+	private static final int ASYNC_CAPACITY = 65536;
+
 	private int numTests;
 	private int numStudents;
-	private ArrayList<Student> students;
+	// Students by index, with an index from name to student used for all
+	// name lookups; adding students synchronizes on it
+	private StudentTable students;
+	// Locks guarding the submissions of students, one stripe shared by every
+	// student whose index maps to it
+	private ReentrantLock[] submissionLocks;
+	// Number of submissions of all students, kept up to date as they are
+	// added
+	private LongAdder totalSubmissions;
+	// Students ranked by their best total, kept up to date as submissions
+	// are added
+	private Leaderboard leaderboard;
+	// Counters describing the submissions added
+	private IngestMetrics metrics;
+	// Write-ahead log of accepted submissions, or null if there is none
+	private volatile SubmissionLog log;
+	// Numbers of submissions and best submissions of the students
+	private ResultStore results;
+	// Course-wide statistics kept up to date, or null if they are not kept
+	private volatile LiveStatistics liveStatistics;
+	// Every submission of every student, or null if they are not kept
+	private volatile SubmissionHistory history;
+	// Queue of submissions added asynchronously, created on first use
+	private volatile SubmissionQueue submissionQueue;
 
 	/*
-	 * Constructor initialize numTest, numStudents, and students. 
+	 * Constructor initialize numTest, numStudents, students, the student
+	 * index and the submission locks.
 	 */
 	public SPSS(int numTests) {
+		this(numTests, 16, false);
+	}
+
+	/*
+	 * Constructs a server that optionally keeps the best submissions of its
+	 * students outside the Java heap, in fixed width rows of direct memory,
+	 * which keeps garbage collection short for very large courses.
+	 *
+	 * parameter numTests The number of tests.
+	 * parameter offHeapResults True to keep results outside the heap.
+	 */
+	public SPSS(int numTests, boolean offHeapResults) {
+		this(numTests, 16, offHeapResults);
+	}
+
+	/*
+	 * Constructs a server whose student list and index are sized for the
+	 * given number of students, so adding them does not resize either.
+	 *
+	 * parameter numTests The number of tests.
+	 * parameter expectedStudents The number of students expected.
+	 * parameter offHeapResults True to keep results outside the heap.
+	 */
+	SPSS(int numTests, int expectedStudents, boolean offHeapResults) {
 		if (numTests > 0) {
 			this.numTests = numTests;
 		} else {
 			this.numTests = 1;
 		}
 		this.numStudents = 0;
-		students = new ArrayList<Student>();
+		students = new StudentTable(expectedStudents);
+		totalSubmissions = new LongAdder();
+		metrics = new IngestMetrics();
+		results = offHeapResults ? new OffHeapResults(this.numTests)
+				: new HeapResults();
+
+		// Use a power of two number of stripes, a few per processor, so that
+		// threads adding submissions for different students rarely collide
+		int stripes = Integer.highestOneBit(
+				Runtime.getRuntime().availableProcessors() * 4 - 1) << 1;
+		submissionLocks = new ReentrantLock[stripes];
+		for (int i = 0; i < stripes; i++) {
+			submissionLocks[i] = new ReentrantLock();
+		}
+		leaderboard = new Leaderboard(stripes);
 	}
 
 
@@ -47,29 +137,216 @@ public class SPSS extends Thread {
 			return false;
 		}
 
-	    // Check if the student already exists in the system
-		for (int i = 0; i < students.size(); i++) {
-			if (students.get(i).getName().equals(newStudent)) {
+		long logSeq = 0;
+		synchronized (students) {
+		    // Check if the student already exists in the system
+			if (students.find(newStudent) != null) {
 				return false;
 			}
-		}
 
-	    // Create a new Student object and add it to the list of students
-		Student std = new Student(newStudent);
-		students.add(std);
+		    // Log the student in the order of their indexes, before any
+			// thread can see the student and log a submission of theirs
+			SubmissionLog currentLog = log;
+			if (currentLog != null) {
+				logSeq = currentLog.appendStudent(newStudent);
+			}
+
+		    // Add the student to the list of students, giving them the next
+			// free index
+			students.add(newStudent);
 
-	    // Increment the total number of students in the system
-		numStudents++;
+		    // Increment the total number of students in the system
+			numStudents++;
+		}
+		awaitLog(logSeq);
 
 		// Return true if the student is added
 		return true;
 	}
 
+	/*
+	 * Adds many new students to the system at once.  The names are checked
+	 * against each other in one pass, in parallel for large rosters, then
+	 * the students are added together and become visible at the same time,
+	 * with indexes in the order of their names.
+	 *
+	 * parameter newStudents The names of the new students.
+	 * return The names that were not added, in the order given: null or
+	 * empty names, names already in the system, and every repeat of a name
+	 * after its first.
+	 */
+	public List<String> addStudents(Collection<String> newStudents) {
+		String[] names = newStudents.toArray(new String[0]);
+		boolean[] first = firstOccurrences(names);
+
+		String[] unique = new String[names.length];
+		int numUnique = 0;
+		for (int i = 0; i < names.length; i++) {
+			if (first[i]) {
+				unique[numUnique++] = names[i];
+			}
+		}
+		unique = Arrays.copyOf(unique, numUnique);
+
+		long logSeq = 0;
+		boolean[] isNew = new boolean[numUnique];
+		synchronized (students) {
+			// Log the new students before any of them can be seen, so their
+			// STUDENT records come before any of their submissions
+			SubmissionLog currentLog = log;
+			String[] newNames = new String[numUnique];
+			int numNew = 0;
+			for (int i = 0; i < numUnique; i++) {
+				isNew[i] = students.find(unique[i]) == null;
+				if (isNew[i]) {
+					newNames[numNew++] = unique[i];
+					if (currentLog != null) {
+						logSeq = currentLog.appendStudent(unique[i]);
+					}
+				}
+			}
+			students.addAll(Arrays.copyOf(newNames, numNew));
+			numStudents += numNew;
+		}
+		awaitLog(logSeq);
+
+		List<String> rejected = new ArrayList<>();
+		int u = 0;
+		for (int i = 0; i < names.length; i++) {
+			if (!first[i] || !isNew[u++]) {
+				rejected.add(names[i]);
+			}
+		}
+		return rejected;
+	}
+
+	/*
+	 * Adds the students of a stream, as addStudents(Collection) does.
+	 *
+	 * parameter newStudents The names of the new students.
+	 * return The names that were not added, in the order of the stream.
+	 */
+	public List<String> addStudents(Stream<String> newStudents) {
+		return addStudents(newStudents.collect(Collectors.toList()));
+	}
+
+	/*
+	 * Adds the students of a roster file, which has one name per line.
+	 * Leading and trailing whitespace is removed and blank lines are
+	 * skipped.
+	 *
+	 * parameter roster The roster file.
+	 * return The names that were not added, in the order of the file.
+	 * throws IOException If the file cannot be read.
+	 */
+	public List<String> addStudents(Path roster) throws IOException {
+		try (Stream<String> lines = Files.lines(roster)) {
+			return addStudents(lines.map(String::trim)
+					.filter(line -> !line.isEmpty()));
+		}
+	}
+
+	// Return true for each name that is valid and not repeated from earlier
+	// in the array, checking large arrays in parallel
+	private static boolean[] firstOccurrences(String[] names) {
+		boolean[] first = new boolean[names.length];
+		if (names.length < PARALLEL_ROSTER) {
+			Set<String> seen = new HashSet<>(names.length * 2);
+			for (int i = 0; i < names.length; i++) {
+				first[i] = names[i] != null && !names[i].isEmpty()
+						&& seen.add(names[i]);
+			}
+			return first;
+		}
+		// Keep the lowest position of each name, then keep the name there
+		ConcurrentHashMap<String, Integer> firstIndex =
+				new ConcurrentHashMap<>(names.length * 2);
+		IntStream.range(0, names.length).parallel().forEach(i -> {
+			if (names[i] != null && !names[i].isEmpty()) {
+				firstIndex.merge(names[i], i, Math::min);
+			}
+		});
+		IntStream.range(0, names.length).parallel().forEach(i ->
+				first[i] = names[i] != null && !names[i].isEmpty()
+						&& firstIndex.get(names[i]) == i);
+		return first;
+	}
+
 	// Return the number of students.
 	public int numStudents() {
 		return students.size();
 	}
 
+	/*
+	 * Helper method
+	 * Looks up the student with the given name in the student index.
+	 *
+	 * parameter name The name of the student to find.
+	 * return The student, or null if the name is null or no such student
+	 * exists.
+	 */
+	Student findStd(String name) {
+		if (name == null) {
+			return null;
+		}
+		return students.find(name);
+	}
+
+	/*
+	 * Helper method
+	 * Looks up the student named by a range of UTF-8 bytes, such as the name
+	 * on an input line, without creating a String.
+	 *
+	 * parameter bytes The bytes holding the name.
+	 * parameter start The index of the first byte of the name.
+	 * parameter end The index after the last byte of the name.
+	 * return The student, or null if no such student exists.
+	 */
+	Student findStd(byte[] bytes, int start, int end) {
+		return students.find(bytes, start, end);
+	}
+
+	/*
+	 * Returns the counters describing the submissions added to this server,
+	 * which can also be registered as a JMX MBean.
+	 *
+	 * return The metrics of this server.
+	 */
+	public IngestMetrics getMetrics() {
+		return metrics;
+	}
+
+	/*
+	 * Helper method
+	 * Checks a student name given with a submission.
+	 *
+	 * parameter name The name to check.
+	 * return The reason to reject the name, or null if it is not null or
+	 * empty.
+	 */
+	private static RejectReason checkName(String name) {
+		if (name == null) {
+			return RejectReason.NULL_NAME;
+		}
+		return name.isEmpty() ? RejectReason.EMPTY_NAME : null;
+	}
+
+	/*
+	 * Helper method
+	 * Returns the lock guarding the submissions of a student.
+	 *
+	 * parameter std The student.
+	 * return The lock stripe the student's index maps to.
+	 */
+	private ReentrantLock lockFor(Student std) {
+		return submissionLocks[std.getIndex() & (submissionLocks.length - 1)];
+	}
+
+	// Return the number of lock stripes, a power of two
+	int numStripes() {
+		return submissionLocks.length;
+	}
+
 	/* Helper method
 	 * Checks if the list of test results contains any negative scores.
 	 *
@@ -96,91 +373,521 @@ public class SPSS extends Thread {
 
 	/*
 	 * Helper method
-	 * Calculates the total score from a list of test results.
+	 * Calculates the total score from an array of test results, checking
+	 * that the results are valid in the same pass.  If they are not, the
+	 * reason is counted in the metrics.
 	 *
-	 * parameter testResults The list of test results for which the total score
-	 * is to be calculated.
-	 * return The sum of all scores in the list, or 0 if the list is null or 
-	 * empty.
+	 * parameter scores The test results for which the total score is to be
+	 * calculated.
+	 * return The sum of all scores in the array, or -1 if the array is null,
+	 * has the wrong number of scores, contains a negative score or adds up
+	 * to more than fits into an int.
 	 */	
-	private int calculateTotalScore(List<Integer> testResults) {
-		int sum = 0;
-	    // Check if the list of test results is null or empty
-	    if (testResults == null || testResults.isEmpty()) {
-	    	// Return 0 if the list is null or empty
-	        return sum; 
-	    }
-	    
-	    // Iterate through the test results to calculate the total score
-		for (int score : testResults) {
-			sum += score;
+	int calculateTotalScore(int[] scores) {
+		if (scores == null) {
+			metrics.rejected(RejectReason.NULL_RESULTS);
+			return -1;
 		}
+		return calculateTotalScore(scores, 0, scores.length);
+	}
 
-		return sum;
+	/*
+	 * Helper method
+	 * Calculates the total score from a range of an array of test results,
+	 * checking that the results are valid in the same pass.  If they are
+	 * not, the reason is counted in the metrics.
+	 *
+	 * parameter scores The array holding the test results.
+	 * parameter offset The index of the first test result.
+	 * parameter length The number of test results.
+	 * return The sum of the scores in the range, or -1 if the range has the
+	 * wrong number of scores, contains a negative score or adds up to more
+	 * than fits into an int.
+	 */	
+	int calculateTotalScore(int[] scores, int offset, int length) {
+		if (length != numTests) {
+			metrics.rejected(RejectReason.WRONG_NUMBER_OF_TESTS);
+			return -1;
+		}
+		long sum = 0;
+		for (int i = offset; i < offset + length; i++) {
+			if (scores[i] < 0) {
+				metrics.rejected(RejectReason.NEGATIVE_SCORE);
+				return -1;
+			}
+			sum += scores[i];
+		}
+		if (sum > Integer.MAX_VALUE) {
+			metrics.rejected(RejectReason.SCORE_OVERFLOW);
+			return -1;
+		}
+		return (int) sum;
 	}
 
 	/*
-	 * Adds a submission for a student.
+	 * Adds a submission for a student.  The results are copied into a
+	 * primitive array and added by addSubmission(String, int[]).
 	 * 
 	 * parameter name The name of the student whose submission is being added.
 	 * parameter testResults The list of test results for the submission.
 	 * return True if the submission is added successfully, false otherwise.
 	 */
-	public synchronized boolean addSubmission(String name, 
-			List<Integer> testResults) {
-	    // Get the index of the student with the given name
-		int index = indexOfStd(name);
-		
-	    // Check if the name is null or empty
-		if (name == null || name.isEmpty()) {
+	public boolean addSubmission(String name, List<Integer> testResults) {
+	    // Check if the test results have the right number of entries
+		if (testResults == null) {
+			metrics.rejected(RejectReason.NULL_RESULTS);
 			return false;
 		}
-		
-	    // Check if the test results are valid
-		if (testResults == null || testResults.size() != numTests || 
-				testResults.contains(null)
-				|| hasNegativeScore(testResults)) {
-			// Return false if the test results are invalid
+		if (testResults.size() != numTests) {
+			metrics.rejected(RejectReason.WRONG_NUMBER_OF_TESTS);
+			return false;
+		}
+
+	    // Unbox the test results, rejecting null entries
+		int[] scores = new int[numTests];
+		for (int i = 0; i < numTests; i++) {
+			Integer score = testResults.get(i);
+			if (score == null) {
+				metrics.rejected(RejectReason.NULL_SCORE);
+				return false;
+			}
+			scores[i] = score;
+		}
+		return addSubmission(name, scores);
+	}
+
+	/*
+	 * Adds a submission for a student.  Only the lock stripe of the student
+	 * is held while the submission is applied, so submissions for students
+	 * on different stripes are added in parallel.  The scores are copied, so
+	 * the caller may reuse the array.
+	 * 
+	 * parameter name The name of the student whose submission is being added.
+	 * parameter scores The test results for the submission.
+	 * return True if the submission is added successfully, false otherwise.
+	 */
+	public boolean addSubmission(String name, int[] scores) {
+	    // Check if the name is null or empty
+		RejectReason reason = checkName(name);
+		if (reason != null) {
+			metrics.rejected(reason);
 			return false;
 		}
+		
+	    // Look up the student with the given name
+		Student std = findStd(name);
 
 	    // Check if the student exists
-		if (!containStd(name)) {
+		if (std == null) {
 			// Return false if the student does not exist
+			metrics.rejected(RejectReason.UNKNOWN_STUDENT);
 			return false;
 		}
+		return addSubmission(std, scores);
+	}
+
+	/*
+	 * Helper method
+	 * Adds a submission for a student that has already been looked up.
+	 *
+	 * parameter std The student whose submission is being added.
+	 * parameter scores The test results for the submission.
+	 * return True if the submission is added successfully, false otherwise.
+	 */
+	boolean addSubmission(Student std, int[] scores) {
+	    // Check if the test results are valid, and total them in the same
+		// pass
+		int total = calculateTotalScore(scores);
+		if (total < 0) {
+			// Return false if the test results are invalid
+			return false;
+		}
+		awaitLog(applySubmissions(std, 1, 1, scores, total, scores, 1));
 
-	    // Check if the student's submission list is empty
 		// Return true if the submission is added successfully
-		if (containStd(name)) {
-			if (students.get(index).getSubmissions().getTestResults()
-					== null) {
-				students.get(index).getSubmissions().
-				setTestResults(testResults);
-				students.get(index).setNumSubmissions(
-						students.get(index).getNumSubmissions() + 1);
-				return true;
-			} else if (students.get(index).calculateTotalScore()
-					<= calculateTotalScore(testResults)) {
-				students.get(index).getSubmissions().setTestResults(
-						testResults);
-				students.get(index).setNumSubmissions(
-						students.get(index).getNumSubmissions() + 1);
-				return true;
-			} else if (students.get(index).calculateTotalScore()
-					> calculateTotalScore(testResults)) {
-				students.get(index).setNumSubmissions(
-						students.get(index).getNumSubmissions() + 1);
-				return true;
+		return true;
+	}
+
+	/*
+	 * Adds a submission for a student asynchronously, without waiting for
+	 * any lock, through a SubmissionQueue the server starts on first use.
+	 * Submissions are added in batches by one applier thread, in the order
+	 * they were queued, and the futures of a batch are completed together
+	 * by the common fork/join pool once the batch is added.  At most 65536
+	 * submissions may wait at once; see openSubmissionQueue() for other
+	 * limits.
+	 *
+	 * parameter name The name of the student whose submission is being added.
+	 * parameter testResults The list of test results for the submission,
+	 * which is copied.
+	 * return A future completed with true if the submission is added, false
+	 * if it is invalid as for addSubmission(), or exceptionally with a
+	 * RejectedExecutionException if too many submissions are waiting or the
+	 * queue is being closed.
+	 */
+	public CompletableFuture<Boolean> addSubmissionAsync(String name,
+			List<Integer> testResults) {
+		SubmissionQueue queue = submissionQueue;
+		if (queue == null) {
+			synchronized (students) {
+				queue = submissionQueue;
+				if (queue == null) {
+					queue = openSubmissionQueue(ASYNC_CAPACITY,
+							ForkJoinPool.commonPool());
+					submissionQueue = queue;
+				}
 			}
 		}
-		
-		// Return false if the submission cannot be added
-		return false;
+		return queue.submit(name, testResults);
+	}
+
+	/*
+	 * Adds a batch of submissions.  All rows are validated and grouped by
+	 * student first, and then each student's group is applied while taking
+	 * the student's lock once.  The result is the same as adding the rows
+	 * one at a time in order: every valid row is counted, and the row with
+	 * the highest total is kept, the later one winning ties.  Afterwards,
+	 * batch.accepted() tells which rows were accepted.
+	 *
+	 * parameter batch The submissions to add.
+	 * return The number of rows accepted, or 0 if the batch is null.
+	 */
+	public int addSubmissions(SubmissionBatch batch) {
+		if (batch == null) {
+			return 0;
+		}
+		SubmissionTally tally = new SubmissionTally(this);
+		int numAccepted = 0;
+		String lastName = null;
+		Student std = null;
+		for (int row = 0; row < batch.size(); row++) {
+			// Look the student up again only when the name changes
+			String name = batch.name(row);
+			if (name == null || !name.equals(lastName)) {
+				std = checkName(name) == null ? findStd(name) : null;
+				lastName = name;
+			}
+			boolean valid = false;
+			if (std == null) {
+				RejectReason reason = checkName(name);
+				metrics.rejected(reason != null ? reason
+						: RejectReason.UNKNOWN_STUDENT);
+			} else if (batch.length(row) < 0) {
+				metrics.rejected(batch.length(row) == -1
+						? RejectReason.NULL_RESULTS : RejectReason.NULL_SCORE);
+			} else {
+				valid = tally.add(std, batch.data(), batch.offset(row),
+						batch.length(row));
+			}
+			batch.setAccepted(row, valid);
+			if (valid) {
+				numAccepted++;
+			}
+		}
+		tally.apply();
+		return numAccepted;
+	}
+
+	/*
+	 * Helper method
+	 * Applies a number of valid submissions of a student at once, as if
+	 * they were added one at a time: all of them are counted, and the best
+	 * of them is kept if it is at least as good as the best one so far.
+	 *
+	 * If there is a write-ahead log, the submissions are appended to it while
+	 * the student's lock is held, so that each student's records are in the
+	 * order they were applied.  The caller must then wait for the record
+	 * with awaitLog().
+	 *
+	 * parameter std The student whose submissions are being applied.
+	 * parameter count The number of submissions.
+	 * parameter replacements The number of submissions at least as good as
+	 * every one before them, which are counted as replacing the best
+	 * submission if the best of them does.
+	 * parameter best The test results of the best of the submissions.
+	 * parameter total The total score of the best of the submissions.
+	 * parameter rows The test results of the submissions in order, numTests
+	 * ints each, to add to the history, or null.
+	 * parameter numRows The number of submissions in rows.
+	 * return The sequence number of the log record, or 0 if there is no
+	 * log.
+	 */
+	long applySubmissions(Student std, int count, int replacements,
+			int[] best, int total, int[] rows, int numRows) {
+		ReentrantLock lock = lockFor(std);
+		// Only time the wait if the lock is not free
+		if (!lock.tryLock()) {
+			long start = System.nanoTime();
+			lock.lock();
+			metrics.lockWaited(System.nanoTime() - start);
+		}
+		int replaced = 0;
+		long logSeq = 0;
+		try {
+			SubmissionLog currentLog = log;
+			if (currentLog != null) {
+				logSeq = currentLog.appendSubmissions(std.getIndex(), count,
+						best);
+			}
+			int oldTotal = results.bestTotal(std);
+			if (oldTotal <= total) {
+				replaceBest(std, best);
+				leaderboard.update(std, oldTotal, total);
+				replaced = replacements;
+			}
+			results.setNumSubmissions(std,
+					results.numSubmissions(std) + count);
+			SubmissionHistory currentHistory = history;
+			if (currentHistory != null && rows != null) {
+				currentHistory.append(std, rows, numRows);
+			}
+		} finally {
+			lock.unlock();
+		}
+		totalSubmissions.add(count);
+		metrics.accepted(count);
+		metrics.applied(count, replaced);
+		return logSeq;
+	}
+
+	/*
+	 * Helper method
+	 * Sets the number of submissions and the best submission of a student,
+	 * as recorded in a write-ahead log.
+	 *
+	 * parameter std The student.
+	 * parameter count The number of submissions of the student.
+	 * parameter best The test results of the best submission, or null if
+	 * the student has none.
+	 */
+	void restoreSubmissions(Student std, int count, int[] best) {
+		ReentrantLock lock = lockFor(std);
+		lock.lock();
+		int oldCount;
+		try {
+			if (best != null) {
+				int oldTotal = results.bestTotal(std);
+				replaceBest(std, best);
+				leaderboard.update(std, oldTotal, results.bestTotal(std));
+			}
+			oldCount = results.numSubmissions(std);
+			results.setNumSubmissions(std, count);
+		} finally {
+			lock.unlock();
+		}
+		totalSubmissions.add(count - oldCount);
+	}
+
+	/*
+	 * Helper method
+	 * Replaces the best submission of a student, updating the live
+	 * statistics if they are kept.  Must be called while holding the
+	 * student's lock.
+	 *
+	 * parameter std The student.
+	 * parameter best The test results of the new best submission.
+	 */
+	private void replaceBest(Student std, int[] best) {
+		LiveStatistics live = liveStatistics;
+		if (live == null) {
+			results.setBest(std, best);
+			return;
+		}
+		Submission old = results.best(std);
+		results.setBest(std, best);
+		live.replace(old, results.best(std));
+	}
+
+	/*
+	 * Helper method
+	 * Waits until a record appended to the write-ahead log is on disk.
+	 *
+	 * parameter logSeq The sequence number of the record, or 0 for none.
+	 */
+	void awaitLog(long logSeq) {
+		SubmissionLog currentLog = log;
+		if (logSeq > 0 && currentLog != null) {
+			currentLog.awaitDurable(logSeq);
+		}
+	}
+
+	/*
+	 * Starts logging every accepted submission to a new write-ahead log
+	 * file, so the server can be rebuilt with recoverFromLog() after a
+	 * restart.  The log starts with the students and submissions the server
+	 * already has.  Once logging is on, addStudent() and the methods adding
+	 * submissions return only after their records are on disk; records of
+	 * threads adding at the same time are forced to disk together.
+	 *
+	 * parameter file The log file, which must not exist.
+	 */
+	public void enableWriteAheadLog(Path file) throws IOException {
+		long logSeq = 0;
+		// Stop all changes while the current state is written
+		lockAll();
+		try {
+			synchronized (students) {
+				if (log != null) {
+					throw new IllegalStateException(
+							"A write-ahead log is already enabled");
+				}
+				SubmissionLog newLog = SubmissionLog.create(file, numTests);
+				int n = students.size();
+				for (int i = 0; i < n; i++) {
+					logSeq = newLog.appendStudent(students.name(i));
+				}
+				for (int i = 0; i < n; i++) {
+					Student std = students.get(i);
+					Submission best = results.best(std);
+					int count = results.numSubmissions(std);
+					if (count > 0 || best.hasResults()) {
+						logSeq = newLog.appendState(std.getIndex(),
+								count, best.hasResults()
+								? best.getScores() : null);
+					}
+				}
+				log = newLog;
+			}
+		} finally {
+			unlockAll();
+		}
+		awaitLog(logSeq);
+	}
+
+	/*
+	 * Stops logging, writing any records not yet on disk and closing the
+	 * log file.  Does nothing if there is no log.
+	 */
+	public void closeWriteAheadLog() throws IOException {
+		SubmissionLog oldLog;
+		lockAll();
+		try {
+			synchronized (students) {
+				oldLog = log;
+				log = null;
+			}
+		} finally {
+			unlockAll();
+		}
+		if (oldLog != null) {
+			oldLog.close();
+		}
+	}
+
+	/*
+	 * Rebuilds a server from a write-ahead log written after
+	 * enableWriteAheadLog(), restoring its students, their best submissions
+	 * and their numbers of submissions.  A record cut off by a crash ends
+	 * the log and is discarded.  The server goes on logging to the same
+	 * file.
+	 *
+	 * parameter file The log file.
+	 * return The rebuilt server.
+	 */
+	public static SPSS recoverFromLog(Path file) throws IOException {
+		return SubmissionLog.recover(file);
+	}
+
+	/*
+	 * Writes a snapshot of the server to a file: a compact binary file with
+	 * the students, their best submissions and their numbers of
+	 * submissions, from which loadSnapshot() restores the server far faster
+	 * than adding everything again.  Changes are held off only while the
+	 * state is copied, not while the file is written.
+	 *
+	 * parameter file The snapshot file, which is replaced if it exists.
+	 */
+	public void saveSnapshot(Path file) throws IOException {
+		Student[] stds;
+		int[] counts;
+		int[][] rows;
+		// Stop all changes while the current state is copied
+		lockAll();
+		try {
+			synchronized (students) {
+				stds = new Student[students.size()];
+				for (int i = 0; i < stds.length; i++) {
+					stds[i] = students.get(i);
+				}
+				counts = new int[stds.length];
+				rows = new int[stds.length][];
+				for (int i = 0; i < stds.length; i++) {
+					Submission best = results.best(stds[i]);
+					counts[i] = results.numSubmissions(stds[i]);
+					if (best.hasResults()) {
+						rows[i] = best.getScores().clone();
+					}
+				}
+			}
+		} finally {
+			unlockAll();
+		}
+		SnapshotFile.save(file, numTests, stds, counts, rows);
+	}
+
+	/*
+	 * Restores a server from a snapshot written by saveSnapshot().  The
+	 * file is memory mapped and the students are restored in one pass
+	 * over it.  The restored server has no write-ahead log.
+	 *
+	 * parameter file The snapshot file.
+	 * return The restored server.
+	 */
+	public static SPSS loadSnapshot(Path file) throws IOException {
+		return SnapshotFile.load(file);
+	}
+
+	/*
+	 * Helper method
+	 * Adds a student restored from a snapshot, with their number of
+	 * submissions and best submission, without logging them.
+	 *
+	 * parameter name The name of the student.
+	 * parameter count The number of submissions of the student.
+	 * parameter best The test results of the best submission, or null if
+	 * the student has none.  The array is copied.
+	 * return True if the student was added, false if the name is taken.
+	 */
+	boolean restoreStudent(String name, int count, int[] best) {
+		Student std;
+		synchronized (students) {
+			std = students.add(name);
+			if (std == null) {
+				return false;
+			}
+			numStudents++;
+		}
+		restoreSubmissions(std, count, best);
+		return true;
 	}
 
 	/*
-	 * Reads submissions concurrently from multiple files.
+	 * Helper method
+	 * Attaches a log that already holds this server's state.
+	 *
+	 * parameter newLog The log.
+	 */
+	void attachLog(SubmissionLog newLog) {
+		log = newLog;
+	}
+
+	// Take every submission lock, in order
+	private void lockAll() {
+		for (ReentrantLock lock : submissionLocks) {
+			lock.lock();
+		}
+	}
+
+	// Release every submission lock
+	private void unlockAll() {
+		for (int i = submissionLocks.length - 1; i >= 0; i--) {
+			submissionLocks[i].unlock();
+		}
+	}
+
+	/*
+	 * Reads submissions concurrently from multiple files, using a bounded
+	 * pool with at most one thread per processor.
 	 * 
 	 * parameter fileNames The list of file names containing submissions.
 	 * return True if submissions are read successfully, false otherwise.
@@ -190,81 +897,380 @@ public class SPSS extends Thread {
 		if (fileNames == null) {
 	        return false;
 	    }
-	    // Create a list to store threads
-	    List<Thread> threads = new ArrayList<>();
-
-	    // Iterate through each file name in the list
-	    for (String fileName : fileNames) {
-	        // Create a new thread for each file
-	        Thread thread = new Thread(new Runnable() {
-	            @Override
-	            public void run() {
-	                try {
-	                    // Create a BufferedReader to read the file
-	                    BufferedReader reader = new BufferedReader(
-	                    		new FileReader("./" + fileName));
-	                    String line;
-
-	                    // Read each line from the file
-	                    while ((line = reader.readLine()) != null) {
-	                        // Split the line into parts using whitespace
-	                        String[] parts = line.split("\\s+");
-	                        List<Integer> testResults = new ArrayList<>();
-	                        // Convert the test results to integers and add to
-	                        //the list
-	                        for (int i = 1; i < parts.length; i++) {
-	                            testResults.add(Integer.parseInt(parts[i]));
-	                        }
-	                        // Synchronize the addition of submission
-	                        synchronized(this) {
-	                        addSubmission(parts[0], testResults);
-	                        }
-	                    }
-	                    reader.close();
-	                } catch (IOException e) {
-	                    e.printStackTrace();
-	                    System.err.println("Error reading file: " + fileName);
-	                }
-	            }
-	        });
-	        // Add the thread to the list
-	        threads.add(thread);
-	    }
-	    // Start all the threads
-	    for (Thread thread : threads) {
-	        thread.start();
-	    }
+		int threads = Math.min(fileNames.size(),
+				Runtime.getRuntime().availableProcessors());
+		ExecutorService executor = IngestExecutors.bounded(threads);
+		try {
+			return readSubmissionsConcurrently(fileNames, executor)
+					.isSuccessful();
+		} finally {
+			executor.shutdown();
+		}
+	}
 
-	    // Wait for all threads to finish
-	    for (Thread thread : threads) {
-	        try {
-	            thread.join();
-	        } catch (InterruptedException e) {
-	            e.printStackTrace();
-	        }
-	    }
-	    // Return true if submissions are read successfully
-	    return true;
+	/*
+	 * Reads submissions concurrently from multiple files, reading each file
+	 * as one task of the given executor, and waits until all files are read.
+	 * The executor decides how many files are read at once; see
+	 * IngestExecutors for executors that bound this.
+	 * 
+	 * parameter fileNames The list of file names containing submissions.
+	 * parameter executor The executor to read the files with.
+	 * return A report of the files that could not be read and a summary of
+	 * each file, or null if the fileNames list or the executor is null.
+	 */
+	public IngestReport readSubmissionsConcurrently(List<String> fileNames,
+			Executor executor) {
+		if (fileNames == null || executor == null) {
+			return null;
+		}
+		return readSubmissionsConcurrently(fileNames, executor,
+				() -> new SubmissionParser(this, numTests));
+	}
+
+	/*
+	 * Reads submissions concurrently from multiple files as
+	 * readSubmissionsConcurrently(List, Executor) does, sending each rejected
+	 * line to a sink with its file name, line number and reason.  Rejected
+	 * lines never stop a file from being read; the report has a summary of
+	 * the lines of each file.
+	 *
+	 * parameter fileNames The list of file names containing submissions.
+	 * parameter executor The executor to read the files with.
+	 * parameter deadLetters The sink receiving the rejected lines.
+	 * return A report of the files that could not be read and a summary of
+	 * each file, or null if any argument is null.
+	 */
+	public IngestReport readSubmissionsConcurrently(List<String> fileNames,
+			Executor executor, DeadLetterSink deadLetters) {
+		if (fileNames == null || executor == null || deadLetters == null) {
+			return null;
+		}
+		return readSubmissionsConcurrently(fileNames, executor,
+				() -> new SubmissionParser(this, numTests), deadLetters);
+	}
+
+	/*
+	 * Helper method
+	 * Reads submission files as tasks of an executor, parsing each file with
+	 * a new parser from the given factory, and waits until all are read.
+	 *
+	 * parameter fileNames The list of file names containing submissions.
+	 * parameter executor The executor to read the files with.
+	 * parameter parsers The factory of the parsers.
+	 * return A report of the files that could not be read and a summary of
+	 * each file.
+	 */
+	IngestReport readSubmissionsConcurrently(List<String> fileNames,
+			Executor executor, Supplier<SubmissionParser> parsers) {
+		return readSubmissionsConcurrently(fileNames, executor, parsers, null);
+	}
+
+	/*
+	 * Helper method
+	 * Reads submission files as tasks of an executor, parsing each file with
+	 * a new parser from the given factory, and waits until all are read.
+	 *
+	 * parameter fileNames The list of file names containing submissions.
+	 * parameter executor The executor to read the files with.
+	 * parameter parsers The factory of the parsers.
+	 * parameter deadLetters The sink receiving the rejected lines, or null.
+	 * return A report of the files that could not be read and a summary of
+	 * each file.
+	 */
+	IngestReport readSubmissionsConcurrently(List<String> fileNames,
+			Executor executor, Supplier<SubmissionParser> parsers,
+			DeadLetterSink deadLetters) {
+		IngestReport report = new IngestReport();
+		CountDownLatch done = new CountDownLatch(fileNames.size());
+
+	    // Submit a task for each file name in the list
+		for (String fileName : fileNames) {
+			Runnable task = () -> {
+				SubmissionParser parser = null;
+				Exception failure = null;
+				try {
+					parser = parsers.get();
+					parser.setDeadLetters(fileName, deadLetters);
+					readSubmissions(fileName, parser);
+				} catch (IOException | RuntimeException e) {
+					failure = e;
+					report.addFailure(fileName, e);
+				} finally {
+					// Summarize the lines read, up to a failure if any
+					report.addSummary(parser != null
+							? parser.summary(fileName, failure)
+							: emptySummary(fileName, failure));
+					done.countDown();
+				}
+			};
+			try {
+				executor.execute(task);
+			} catch (RejectedExecutionException e) {
+				report.addFailure(fileName, e);
+				report.addSummary(emptySummary(fileName, e));
+				done.countDown();
+			}
+		}
+
+	    // Wait for all files to be read
+		try {
+			done.await();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		return report;
+	}
+
+	// Return the summary of a file of which no line was read
+	private static FileSummary emptySummary(String fileName,
+			Exception failure) {
+		return new FileSummary(fileName, 0,
+				new long[RejectReason.values().length], failure);
+	}
+
+	/*
+	 * Opens a stream for adding submissions from live sources: streams,
+	 * channels and files that are still being written.  Submissions are
+	 * applied as their lines arrive.
+	 *
+	 * return The stream, which the caller must drain or close.
+	 */
+	public SubmissionStream streamSubmissions() {
+		return new SubmissionStream(this, numTests, 100);
+	}
+
+	/*
+	 * Opens a queue adding submissions asynchronously in batches, with its
+	 * own applier thread.
+	 *
+	 * parameter capacity The number of submissions that may wait at once;
+	 * more are rejected.
+	 * parameter completions The executor completing the futures of each
+	 * batch, on which callbacks without an executor of their own run.
+	 * return The queue, which the caller must close.
+	 */
+	public SubmissionQueue openSubmissionQueue(int capacity,
+			Executor completions) {
+		return new SubmissionQueue(this, capacity, completions);
+	}
+
+	/*
+	 * Closes the queue of addSubmissionAsync(), once the submissions in it
+	 * are added, and stops its thread.  A later addSubmissionAsync() starts
+	 * a new queue.
+	 */
+	public void closeSubmissionQueue() {
+		SubmissionQueue queue;
+		synchronized (students) {
+			queue = submissionQueue;
+			submissionQueue = null;
+		}
+		if (queue != null) {
+			queue.close();
+		}
+	}
+
+	/*
+	 * Opens a sharded ingest, which reads submission files with parsing
+	 * threads feeding one writer thread per shard of the students, so
+	 * writers never contend for the same locks.
+	 *
+	 * parameter numShards The number of shards, such as the number of
+	 * processors.
+	 * return The ingest, which the caller must close.
+	 */
+	public ShardedIngest openShardedIngest(int numShards) {
+		return new ShardedIngest(this, numTests, numShards);
+	}
+
+	/*
+	 * Starts accepting submissions and queries over TCP; see
+	 * SubmissionServer for the protocol.
+	 *
+	 * parameter address The address to listen on, with port 0 for any free
+	 * port.
+	 * return The running server, which the caller must close.
+	 */
+	public SubmissionServer listen(InetSocketAddress address)
+			throws IOException {
+		return new SubmissionServer(this, numTests, address);
+	}
+
+	/*
+	 * Helper method
+	 * Reads the submissions in one file on the current thread.
+	 *
+	 * parameter fileName The name of the file containing submissions.
+	 * parameter parser The parser of this thread's own to parse it with.
+	 */
+	private void readSubmissions(String fileName, SubmissionParser parser)
+			throws IOException {
+		long start = System.nanoTime();
+		try (InputStream in = new FileInputStream("./" + fileName)) {
+		    // Add the submission on each line of the file
+			parser.parse(in);
+		}
+		metrics.fileRead(fileName, parser.numLines(),
+				System.nanoTime() - start);
+	}
+
+	/*
+	 * Reads the submissions in one file using several threads.  The file is
+	 * split into ranges of about equal size that end at line breaks, and the
+	 * ranges are memory mapped and parsed in parallel.  Each range is
+	 * collected per student first and then applied in the order of the
+	 * ranges, so the result is the same as reading the file line by line.
+	 * No range is applied until all of them are parsed, so a file that
+	 * cannot be parsed leaves the server unchanged.
+	 *
+	 * While a history of submissions is kept, every row of a range would
+	 * be held until it is applied, so the file is instead read in one pass
+	 * on the calling thread and applied in batches as it is read.
+	 *
+	 * parameter fileName The name of the file containing submissions.
+	 * parameter parallelism The number of threads to parse the file with.
+	 * return True if the submissions are read successfully, false otherwise.
+	 */
+	public boolean readSubmissionsInParallel(String fileName,
+			int parallelism) {
+		// Check if the file name is null
+		if (fileName == null) {
+			return false;
+		}
+		parallelism = Math.max(1, parallelism);
+
+		ExecutorService pool = IngestExecutors.bounded(parallelism);
+		try {
+			return readSubmissionsInParallel(fileName, pool, parallelism)
+					.isSuccessful();
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	/*
+	 * Reads the submissions in one file as readSubmissionsInParallel(String,
+	 * int) does, parsing its ranges as tasks of the given executor.
+	 *
+	 * parameter fileName The name of the file containing submissions.
+	 * parameter executor The executor to parse the ranges with.
+	 * parameter numRanges The number of ranges to split the file into.
+	 * return A report with the exception that stopped reading the file, if
+	 * any, or null if the file name or the executor is null.
+	 */
+	public IngestReport readSubmissionsInParallel(String fileName,
+			Executor executor, int numRanges) {
+		if (fileName == null || executor == null) {
+			return null;
+		}
+		IngestReport report = new IngestReport();
+		if (keepsHistory()) {
+			try {
+				readSubmissions(fileName, new SubmissionParser(this, numTests));
+			} catch (IOException | RuntimeException e) {
+				report.addFailure(fileName, e);
+			}
+			return report;
+		}
+		long startTime = System.nanoTime();
+		try (FileChannel channel = FileChannel.open(Paths.get("./" + fileName),
+				StandardOpenOption.READ)) {
+			// Split the file into ranges, using more ranges than asked for if
+			// needed to keep each range small enough to be mapped
+			long size = channel.size();
+			long ranges = Math.max(Math.max(1, numRanges),
+					(size + Integer.MAX_VALUE - 1) / Integer.MAX_VALUE);
+			List<Long> bounds = new ArrayList<>();
+			bounds.add(0L);
+			for (long i = 1; i < ranges; i++) {
+				long bound = lineStart(channel, size * i / ranges);
+				if (bound > bounds.get(bounds.size() - 1) && bound < size) {
+					bounds.add(bound);
+				}
+			}
+			bounds.add(size);
+
+			// Parse the ranges in parallel, each into its own tally
+			List<CompletableFuture<SubmissionTally>> tallies =
+					new ArrayList<>();
+			List<SubmissionParser> parsers = new ArrayList<>();
+			for (int i = 0; i + 1 < bounds.size(); i++) {
+				long start = bounds.get(i);
+				long length = bounds.get(i + 1) - start;
+				ByteBuffer range = channel.map(FileChannel.MapMode.READ_ONLY,
+						start, length);
+				SubmissionTally tally = new SubmissionTally(this);
+				SubmissionParser parser = new SubmissionParser(this, numTests,
+						tally);
+				parsers.add(parser);
+				tallies.add(CompletableFuture.supplyAsync(() -> {
+					parser.parse(range);
+					return tally;
+				}, executor));
+			}
+
+			// Wait for every range to be parsed, then apply the tallies in
+			// the order of the ranges
+			CompletableFuture.allOf(tallies.toArray(
+					new CompletableFuture<?>[0])).get();
+			for (CompletableFuture<SubmissionTally> tally : tallies) {
+				tally.get().apply();
+			}
+			long lines = 0;
+			for (SubmissionParser parser : parsers) {
+				lines += parser.numLines();
+			}
+			metrics.fileRead(fileName, lines, System.nanoTime() - startTime);
+		} catch (ExecutionException e) {
+			report.addFailure(fileName, e.getCause() instanceof Exception
+					? (Exception) e.getCause() : e);
+		} catch (IOException | RuntimeException e) {
+			report.addFailure(fileName, e);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			report.addFailure(fileName, e);
+		}
+		return report;
+	}
+
+	/*
+	 * Helper method
+	 * Finds the start of the first line beginning at or after a position in
+	 * a file.
+	 *
+	 * parameter channel The file.
+	 * parameter position The position to start looking from.
+	 * return The position after the first line break at or after position - 1,
+	 * or the size of the file if there is none.
+	 */
+	private static long lineStart(FileChannel channel, long position)
+			throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(4096);
+		long pos = Math.max(0, position - 1);
+		while (true) {
+			buffer.clear();
+			int n = channel.read(buffer, pos);
+			if (n <= 0) {
+				return channel.size();
+			}
+			for (int i = 0; i < n; i++) {
+				if (buffer.get(i) == '\n') {
+					return pos + i + 1;
+				}
+			}
+			pos += n;
+		}
 	}
-	
 
 	/*
 	 * Checks if a student with the given name exists in the students list.
 	 * 
 	 * parameter name The name of the student to check.
 	 * return True if a student with the given name exists, false otherwise.
-	 */	public boolean containStd(String name) {
-		// Iterate through the students list
-		for (int i = 0; i < students.size(); i++) {
-	        // Check if the name of the student at index i matches the given
-			// name
-			if (students.get(i).getName().equals(name)) {
-				// Return true if a match is found
-				return true;
-			}
-		}
-		// Return false if no match is found
-		return false;
+	 */
+	public boolean containStd(String name) {
+		return findStd(name) != null;
 	}
 
 	/*
@@ -273,20 +1279,11 @@ public class SPSS extends Thread {
 	 * 
 	 * parameter name The name of the student to find.
 	 * return The index of the student in the list, or -1 if not found.
-	 */	public int indexOfStd(String name) {
-		 // Initialize the result to -1 (not found)
-		int result = -1;
-	    // Iterate through the students list
-		for (int i = 0; i < students.size(); i++) {
-	        // Check if the name of the student at index i matches the given 
-			// name
-			if (students.get(i).getName().equals(name)) {
-	            // Update the result to the index i if found
-				result = i;
-			}
-		}
+	 */
+	public int indexOfStd(String name) {
+		Student std = findStd(name);
 		// Return the index of the student or -1 if not found
-		return result;
+		return std == null ? -1 : std.getIndex();
 	}
 
 	/*
@@ -297,17 +1294,16 @@ public class SPSS extends Thread {
 	 *  or the student does not exist.
 	 */
 	public int score(String name) {
-	    // Get the index of the student with the given name
-		int index = indexOfStd(name);
+	    // Look up the student with the given name
+		Student std = findStd(name);
 
-	    // Check if the name is null, empty, or the student does not exist
-		if (name == null || name.isEmpty() || !containStd(name)) {
-			// Return -1 if any of the conditions are true
+	    // Check if the student does not exist
+		if (std == null) {
+			// Return -1 if the student does not exist
 			return -1;
 		}
-	    // Calculate and return the total score of the student at the determined
-		// index
-		return students.get(index).calculateTotalScore();
+	    // Calculate and return the total score of the student
+		return results.best(std).getTotalScore();
 	}
 
 	/*
@@ -320,21 +1316,15 @@ public class SPSS extends Thread {
 	 * exist.
 	 */
 	public int numSubmissions(String name) {
-	    // Get the index of the student with the given name
-		int index = indexOfStd(name);
-	    // Check if the name is null, empty, or the student does not exist
-		if (name == null || name.isEmpty() || !containStd(name)) {
-			// Return -1 if any of the conditions are true
+	    // Look up the student with the given name
+		Student std = findStd(name);
+	    // Check if the student does not exist
+		if (std == null) {
+			// Return -1 if the student does not exist
 			return -1;
 		}
-		
-	    // Check if the student has no submissions
-		if (students.get(index).getNumSubmissions() == 0) {
-			// Return 0 if the student has no submissions
-			return 0;
-		}
 	    // Return the number of submissions of the student
-		return students.get(index).getNumSubmissions();
+		return results.numSubmissions(std);
 	}
 
 	/*
@@ -343,14 +1333,9 @@ public class SPSS extends Thread {
 	 * return The total number of submissions across all students.
 	 */
 	public int numSubmissions() {
-		int totalSubmissions = 0;
-		
-	    // Iterate through all students and sum up their number of submissions
-		for (Student student : students) {
-			totalSubmissions += student.getNumSubmissions();
-		}
-	    // Return the total number of submissions
-		return totalSubmissions;
+	    // Return the total number of submissions, which is counted as they
+		// are added
+		return totalSubmissions.intValue();
 	}
 
 	/*
@@ -362,35 +1347,33 @@ public class SPSS extends Thread {
 	 * false.
 	 */
 	public boolean satisfactory(String name) {
-	    // Check if the name is null or empty
-		if (name == null || name.isEmpty()) {
-			return false;
-		}
-		
-	    // Check if the student exists
-		if (!containStd(name)) {
+	    // Look up the student with the given name
+		Student std = findStd(name);
+		if (std == null) {
 			return false;
 		}
-	    // Get the index of the student
-		int index = indexOfStd(name);
-	    // Get the number of tests
-		int numOfTest = students.get(index).getSubmissions().
-				getTestResults().size();
-	    // Count the number of passed tests
-		int numOfPassedTest = 0;
-		for (int i = 0; i < numOfTest; i++) {
-			if (students.get(index).getSubmissions().getTestResults().get(i)
-					> 0) {
-				numOfPassedTest++;
-			}
-		}
+	    // Read the best submission once, so both counts come from the same
+		// results even while it is being replaced
+		return isSatisfactory(results.best(std));
+	}
+
+	/*
+	 * Helper method
+	 * Checks if a submission is satisfactory based on its passed tests.
+	 *
+	 * parameter best The best submission of a student.
+	 * return True if at least half of the tests and at least one test are
+	 * passed, otherwise false.
+	 */
+	static boolean isSatisfactory(Submission best) {
+	    // Get the number of tests, which is 0 before the first submission
+		int numOfTest = best.getScores().length;
+	    // Get the number of passed tests, which is counted when the
+		// submission is made
+		int numOfPassedTest = best.getNumPassed();
 	    // Check if the number of passed tests is at least half of the total 
 		// tests and greater than 0
-		if (numOfPassedTest >= numOfTest / 2 && numOfPassedTest > 0) {
-			return true;
-		} else {
-			return false;
-		}
+		return numOfPassedTest >= numOfTest / 2 && numOfPassedTest > 0;
 	}
 	
 	/*
@@ -401,27 +1384,157 @@ public class SPSS extends Thread {
 	* false otherwise.
 	*/
 	public boolean gotExtraCredit(String name) {
-		// Check for invalid input
-		if (name == null || name.isEmpty()) {
+		// Check for invalid input or student not found
+		Student std = findStd(name);
+		if (std == null) {
 			return false;
 		}
-		
-		if (!containStd(name)) {
-			// Student not found
-			return false;
+
+	    // Check if the student has received extra credit for all tests,
+		// which is determined when the best submission changes
+		return results.best(std).allPassed();
+	}
+
+	/*
+	 * Starts keeping every submission of every student, not only the best,
+	 * in a compact encoding of a few bytes per score.  Submissions added
+	 * before are not in the history, nor are those restored from a
+	 * write-ahead log or a snapshot.  Does nothing if a history is kept
+	 * already.
+	 *
+	 * parameter retention The number of latest submissions to keep per
+	 * student, or 0 to keep all of them.
+	 */
+	public void enableHistory(int retention) {
+		synchronized (students) {
+			if (history == null) {
+				history = new SubmissionHistory(numTests, retention);
+			}
 		}
+	}
 
-		int index = indexOfStd(name);
-	    // Check if the student has received extra credit for all tests
-		for (int i = 0; i < students.get(index).getSubmissions().
-				getTestResults().size(); i++) {
-			if (students.get(index).getSubmissions().getTestResults().
-					get(i).equals(0)) {
-				// Student has not received extra credit for this test
-				return false;
+	// Return true if a history of submissions is kept
+	boolean keepsHistory() {
+		return history != null;
+	}
+
+	/*
+	 * Returns the submissions of a student kept in the history, oldest
+	 * first.
+	 *
+	 * parameter name The name of the student.
+	 * return The test results of each submission, or null if the student
+	 * does not exist or no history is kept.
+	 */
+	public List<int[]> history(String name) {
+		SubmissionHistory currentHistory = history;
+		Student std = findStd(name);
+		if (currentHistory == null || std == null) {
+			return null;
+		}
+		ReentrantLock lock = lockFor(std);
+		lock.lock();
+		try {
+			return currentHistory.get(std);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/*
+	 * Computes course-wide statistics over the best submissions of all
+	 * students: per test means, extremes and percentiles, the distribution
+	 * of totals and the satisfactory rate.  The students are processed in
+	 * parallel on the common fork/join pool.
+	 *
+	 * return The exact statistics.
+	 */
+	public CourseStatistics statistics() {
+		return new CourseAnalytics(students, results, numTests).compute();
+	}
+
+	/*
+	 * Starts keeping course-wide statistics up to date as best submissions
+	 * change, so liveStatistics() is cheap however large the course is.
+	 * Does nothing if they are kept already.
+	 */
+	public void enableLiveStatistics() {
+		// Stop all changes while the current results are counted
+		lockAll();
+		try {
+			if (liveStatistics == null) {
+				LiveStatistics live = new LiveStatistics(numTests);
+				int n = students.size();
+				for (int i = 0; i < n; i++) {
+					live.replace(Submission.NONE,
+							results.best(students.get(i)));
+				}
+				liveStatistics = live;
 			}
+		} finally {
+			unlockAll();
 		}
-		// Student has received extra credit for all tests
-		return true;
+	}
+
+	/*
+	 * Returns the statistics kept up to date since enableLiveStatistics().
+	 * Scores of 128 and above are bucketed; see CourseStatistics.
+	 *
+	 * return The current statistics, or null if they are not kept.
+	 */
+	public CourseStatistics liveStatistics() {
+		LiveStatistics live = liveStatistics;
+		return live == null ? null : live.snapshot(students.size());
+	}
+
+	/*
+	 * Returns the names of the students with the highest scores, highest
+	 * first.  Students with the same score are listed in the order they were
+	 * added, and students without submissions are not listed.
+	 *
+	 * parameter k The maximum number of names to return.
+	 * return Up to k names, or an empty list if k is not positive.
+	 */
+	public List<String> topK(int k) {
+		List<String> names = new ArrayList<>();
+		if (k <= 0) {
+			return names;
+		}
+		for (Student std : leaderboard.top(k)) {
+			names.add(std.getName());
+		}
+		return names;
+	}
+
+	/*
+	 * Returns the rank of a student by score, which is one more than the
+	 * number of students with a higher score, so students with the same
+	 * score share a rank.
+	 *
+	 * parameter name The name of the student.
+	 * return The rank of the student, or -1 if the name is null, empty, the
+	 * student does not exist or has no submissions.
+	 */
+	public int rankOf(String name) {
+		Student std = findStd(name);
+		if (std == null) {
+			return -1;
+		}
+		Submission best = results.best(std);
+		if (!best.hasResults()) {
+			return -1;
+		}
+		return leaderboard.countAtLeast(best.getTotalScore() + 1) + 1;
+	}
+
+	/*
+	 * Counts the students whose score is at least the given score.  Students
+	 * without submissions are not counted.
+	 *
+	 * parameter score The score to compare with.
+	 * return The number of students with a score of at least score.
+	 */
+	public int numScoredAtLeast(int score) {
+		return leaderboard.countAtLeast(score);
 	}
 }
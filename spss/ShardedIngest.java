@@ -0,0 +1,236 @@
+package spss;
+
+import java.io.Closeable;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/*
+ * Adds submissions to a SPSS with one writer thread per shard of its
+ * students.  Reading threads only parse: they sort the parsed submissions
+ * into one tally per shard and hand each full tally to the shard's writer
+ * through a lock-free queue.  Only a shard's writer applies submissions to
+ * its students.
+ *
+ * Shards are made of whole lock stripes of the server, so as long as
+ * submissions are added only through this object, no two threads ever
+ * take the same stripe lock and every lock on the apply path is taken
+ * without contention.  Queries need nothing extra: the totals and the
+ * leaderboard are already kept per stripe and merged when read.
+ *
+ * The number of tallies waiting for writers is bounded, so parsing waits
+ * for the writers when they fall behind.
+ */
+public class ShardedIngest implements Closeable {
+	// Number of tallies that may wait for each writer
+	private static final int PENDING_PER_SHARD = 4;
+	private static final AtomicInteger threadNumber = new AtomicInteger();
+
+	/*
+	 * A tally waiting for a writer, with the report of the call to
+	 * readSubmissions() it was parsed in, which receives its failure.
+	 */
+	private static class Queued {
+		final SubmissionTally tally;
+		final IngestReport report;
+
+		Queued(SubmissionTally tally, IngestReport report) {
+			this.tally = tally;
+			this.report = report;
+		}
+	}
+
+	/*
+	 * A shard of the students, with its queue of tallies and its writer.
+	 */
+	private class Shard implements Runnable {
+		final ConcurrentLinkedQueue<Queued> queue =
+				new ConcurrentLinkedQueue<>();
+		final Thread writer;
+
+		Shard() {
+			writer = new Thread(this,
+					"spss-shard-" + threadNumber.incrementAndGet());
+			writer.setDaemon(true);
+		}
+
+		// Queue a tally for the writer
+		void submit(SubmissionTally tally, IngestReport report) {
+			queue.offer(new Queued(tally, report));
+			LockSupport.unpark(writer);
+		}
+
+		@Override
+		public void run() {
+			while (true) {
+				Queued queued = queue.poll();
+				if (queued == null) {
+					// Stop once closed and nothing is left to apply
+					if (closed) {
+						return;
+					}
+					LockSupport.park(this);
+					continue;
+				}
+				try {
+					queued.tally.apply();
+				} catch (RuntimeException e) {
+					queued.report.addFailure(writer.getName(), e);
+				} finally {
+					pending.release();
+				}
+			}
+		}
+	}
+
+	/*
+	 * A tally that sorts submissions by shard, and hands the submissions of
+	 * each shard to its writer when applied.
+	 */
+	private class RoutingTally extends SubmissionTally {
+		private final SubmissionTally[] tallies =
+				new SubmissionTally[shards.length];
+		// Report receiving the failures of the writers applying this tally
+		private final IngestReport report;
+
+		RoutingTally(IngestReport report) {
+			super(server);
+			this.report = report;
+			for (int i = 0; i < tallies.length; i++) {
+				tallies[i] = new SubmissionTally(server);
+			}
+		}
+
+		@Override
+		boolean add(Student std, int[] scores, int offset, int length) {
+			return tallies[std.getIndex() & (shards.length - 1)].add(std,
+					scores, offset, length);
+		}
+
+		@Override
+		boolean isEmpty() {
+			for (SubmissionTally tally : tallies) {
+				if (!tally.isEmpty()) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		@Override
+		void apply() {
+			for (int i = 0; i < tallies.length; i++) {
+				if (!tallies[i].isEmpty()) {
+					pending.acquireUninterruptibly();
+					shards[i].submit(tallies[i], report);
+					tallies[i] = new SubmissionTally(server);
+				}
+			}
+		}
+	}
+
+	private final SPSS server;
+	private final int numTests;
+	private final Shard[] shards;
+	// Permits for the tallies that may wait for writers
+	private final Semaphore pending;
+	private volatile boolean closed;
+
+	/*
+	 * Constructs a sharded ingest and starts its writers.
+	 *
+	 * parameter server The server to add submissions to.
+	 * parameter numTests The number of tests of the server.
+	 * parameter numShards The number of shards, rounded down to a power of
+	 * two no greater than the server's number of lock stripes.
+	 */
+	ShardedIngest(SPSS server, int numTests, int numShards) {
+		this.server = server;
+		this.numTests = numTests;
+		int n = Integer.highestOneBit(Math.max(1,
+				Math.min(numShards, server.numStripes())));
+		shards = new Shard[n];
+		for (int i = 0; i < n; i++) {
+			shards[i] = new Shard();
+		}
+		pending = new Semaphore(n * PENDING_PER_SHARD, true);
+		for (Shard shard : shards) {
+			shard.writer.start();
+		}
+	}
+
+	// Return the number of shards
+	public int numShards() {
+		return shards.length;
+	}
+
+	/*
+	 * Reads submission files concurrently, with at most one parsing thread
+	 * per processor, and waits until their submissions are applied.
+	 *
+	 * parameter fileNames The list of file names containing submissions.
+	 * return A report of the files that could not be read and of the
+	 * writers that failed to apply their submissions, or null if the
+	 * fileNames list is null.
+	 */
+	public IngestReport readSubmissions(List<String> fileNames) {
+		if (fileNames == null) {
+			return null;
+		}
+		if (closed) {
+			throw new IllegalStateException("The ingest is closed");
+		}
+		int threads = Math.min(fileNames.size(),
+				Runtime.getRuntime().availableProcessors());
+		ExecutorService executor = IngestExecutors.bounded(threads);
+		// Failures of the writers applying this call's tallies only, as
+		// other calls may be reading at the same time
+		IngestReport writerReport = new IngestReport();
+		IngestReport fileReport;
+		try {
+			fileReport = server.readSubmissionsConcurrently(fileNames,
+					executor, () -> new SubmissionParser(server, numTests,
+							new RoutingTally(writerReport), true));
+		} finally {
+			executor.shutdown();
+		}
+		flush();
+		fileReport.addFailures(writerReport);
+		return fileReport;
+	}
+
+	/*
+	 * Waits until every tally handed to the writers has been applied.
+	 */
+	public void flush() {
+		int permits = shards.length * PENDING_PER_SHARD;
+		pending.acquireUninterruptibly(permits);
+		pending.release(permits);
+	}
+
+	/*
+	 * Applies the submissions still waiting and stops the writers.
+	 */
+	@Override
+	public void close() {
+		flush();
+		closed = true;
+		boolean interrupted = false;
+		for (Shard shard : shards) {
+			LockSupport.unpark(shard.writer);
+			while (shard.writer.isAlive()) {
+				try {
+					shard.writer.join();
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
@@ -0,0 +1,188 @@
+package spss;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/*
+ * Reads and writes snapshots of a SPSS: a binary file holding every
+ * student's name, number of submissions and best submission, from which a
+ * server can be restored without adding its students and submissions
+ * again.
+ *
+ * The file is columnar, with all ints big endian:
+ *
+ *   header   magic "SPSSSNP1", numTests, numStudents, name bytes length
+ *   offsets  numStudents + 1 ints, the start of each name in the names
+ *   counts   numStudents ints, the number of submissions of each student
+ *   totals   numStudents ints, the best total of each student, or -1
+ *   rows     numStudents * numTests ints, the best scores of each student
+ *   names    the names, UTF-8 encoded, one after another
+ *
+ * Students are in the order of their indexes.  A student without a
+ * submission has a total of -1 and a row of zeros.  The columns are read
+ * through a memory mapping of the file.
+ */
+class SnapshotFile {
+	private static final byte[] MAGIC =
+			"SPSSSNP1".getBytes(StandardCharsets.US_ASCII);
+	private static final int HEADER_SIZE = MAGIC.length + 12;
+
+	private SnapshotFile() {
+	}
+
+	/*
+	 * Writes a snapshot of the given students.  The file is written under a
+	 * temporary name first and then moved into place, so a crash never
+	 * leaves a partial snapshot behind.
+	 *
+	 * parameter file The snapshot file.
+	 * parameter numTests The number of tests.
+	 * parameter students The students, in the order of their indexes.
+	 * parameter counts The number of submissions of each student.
+	 * parameter rows The best scores of each student, or null for a student
+	 * without a submission.
+	 */
+	static void save(Path file, int numTests, Student[] students,
+			int[] counts, int[][] rows) throws IOException {
+		int n = students.length;
+		byte[][] names = new byte[n][];
+		long nameBytes = 0;
+		for (int i = 0; i < n; i++) {
+			names[i] = students[i].getName().getBytes(StandardCharsets.UTF_8);
+			nameBytes += names[i].length;
+		}
+		long size = HEADER_SIZE + 4L * (n + 1) + 4L * n * (2 + numTests)
+				+ nameBytes;
+		if (size > Integer.MAX_VALUE || nameBytes > Integer.MAX_VALUE) {
+			throw new IOException("Snapshot too large: " + size + " bytes");
+		}
+
+		Path dir = file.toAbsolutePath().getParent();
+		Path temp = Files.createTempFile(dir, file.getFileName().toString(),
+				".tmp");
+		try {
+			try (FileChannel channel = FileChannel.open(temp,
+					StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+				MappedByteBuffer out = channel.map(
+						FileChannel.MapMode.READ_WRITE, 0, size);
+				out.put(MAGIC).putInt(numTests).putInt(n)
+						.putInt((int) nameBytes);
+				IntBuffer ints = out.asIntBuffer();
+				int offset = 0;
+				for (int i = 0; i < n; i++) {
+					ints.put(offset);
+					offset += names[i].length;
+				}
+				ints.put(offset);
+				ints.put(counts);
+				for (int i = 0; i < n; i++) {
+					int total = -1;
+					if (rows[i] != null) {
+						total = 0;
+						for (int score : rows[i]) {
+							total += score;
+						}
+					}
+					ints.put(total);
+				}
+				int[] empty = new int[numTests];
+				for (int i = 0; i < n; i++) {
+					ints.put(rows[i] != null ? rows[i] : empty);
+				}
+				out.position(out.position() + ints.position() * 4);
+				for (byte[] name : names) {
+					out.put(name);
+				}
+				out.force();
+			}
+			Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(temp);
+		}
+	}
+
+	/*
+	 * Restores a server from a snapshot.  The columns are read straight from
+	 * the mapped file, and the students are added in one pass with the
+	 * roster and index sized for them up front.
+	 *
+	 * parameter file The snapshot file.
+	 * return The restored server.
+	 */
+	static SPSS load(Path file) throws IOException {
+		MappedByteBuffer in;
+		try (FileChannel channel = FileChannel.open(file,
+				StandardOpenOption.READ)) {
+			in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+		if (in.capacity() < HEADER_SIZE) {
+			throw new IOException("Not a snapshot: " + file);
+		}
+		byte[] magic = new byte[MAGIC.length];
+		in.get(magic);
+		if (!Arrays.equals(magic, MAGIC)) {
+			throw new IOException("Not a snapshot: " + file);
+		}
+		int numTests = in.getInt();
+		int n = in.getInt();
+		int nameBytes = in.getInt();
+		long size = HEADER_SIZE + 4L * (n + 1) + 4L * n * (2 + numTests)
+				+ nameBytes;
+		if (numTests <= 0 || n < 0 || nameBytes < 0
+				|| size != in.capacity()) {
+			throw new IOException("Damaged snapshot: " + file);
+		}
+
+		IntBuffer offsets = slice(in, HEADER_SIZE, n + 1);
+		IntBuffer counts = slice(in, HEADER_SIZE + 4 * (n + 1), n);
+		IntBuffer totals = slice(in, HEADER_SIZE + 4 * (2 * n + 1), n);
+		IntBuffer rows = slice(in, HEADER_SIZE + 4 * (3 * n + 1),
+				n * numTests);
+		ByteBuffer names = in.duplicate();
+		names.position(HEADER_SIZE + 4 * (n + 1) + 4 * n * (2 + numTests));
+
+		SPSS server = new SPSS(numTests, n, false);
+		byte[] name = new byte[64];
+		int[] row = new int[numTests];
+		for (int i = 0; i < n; i++) {
+			int length = offsets.get(i + 1) - offsets.get(i);
+			if (length <= 0 || length > names.remaining()) {
+				throw new IOException("Damaged snapshot: " + file);
+			}
+			if (name.length < length) {
+				name = new byte[Math.max(length, name.length * 2)];
+			}
+			names.get(name, 0, length);
+			boolean hasBest = totals.get(i) >= 0;
+			if (hasBest) {
+				rows.position(i * numTests);
+				rows.get(row);
+			}
+			if (!server.restoreStudent(
+					new String(name, 0, length, StandardCharsets.UTF_8),
+					counts.get(i), hasBest ? row : null)) {
+				throw new IOException("Damaged snapshot: " + file);
+			}
+		}
+		return server;
+	}
+
+	// Return a view of ints in a buffer, starting at the given byte position
+	private static IntBuffer slice(ByteBuffer buffer, int position,
+			int length) {
+		ByteBuffer bytes = buffer.duplicate();
+		bytes.position(position);
+		bytes.limit(position + 4 * length);
+		return bytes.slice().asIntBuffer();
+	}
+}
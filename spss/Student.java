@@ -1,71 +1,56 @@
 package spss;
 
-import java.util.ArrayList;
-import java.util.List;
-
 /*
- * Represents a student in the SPSS system with their name, submissions, and 
- * test results.
+ * Represents a student in the SPSS system with their name, submissions, and
+ * test results.  The name is kept in the roster's StudentTable, and the
+ * student is identified by their index in it.
  */
 public class Student {
-	private String name;
-	private int numSubmissions;
-	private Submission submissions;
-	private List<Integer> testResults = new ArrayList<>();
+	private final StudentTable table;
+	private final int index;
+	private volatile int numSubmissions;
+	// Best submission, replaced as a whole so readers never see a mix of
+	// two submissions
+	private volatile Submission submissions;
 
     /*
-     * Constructs a student with the given name.
+     * Constructs a student whose name is held by the given table.
      *
-     * parameter name The name of the student.
+     * parameter table The table holding the student's name.
+     * parameter index The index of the student in the table.
      */
-	public Student(String name) {
-		this.name = name;
+	Student(StudentTable table, int index) {
+		this.table = table;
+		this.index = index;
 		this.numSubmissions = 0;
-		this.submissions = new Submission(testResults);
+		this.submissions = Submission.NONE;
 	}
- 
+
     /*
-     * Calculates the total score of the student based on their submissions.
+     * Returns the total score of the student based on their submissions,
+     * which is kept up to date by the submission.
      *
      * return The total score of the student.
      */
 	public int calculateTotalScore() {
-		int sum = 0;
-        // Calculate the sum of test results from submissions to get the total 
-		// score
-		for (int score : submissions.getTestResults()) {
-			sum += score;
-		}
-		
-		// Return the calculated total score
-		return sum;
+		return submissions.getTotalScore();
 	}
 
-	// Getter for testResults
-	public List<Integer> getTestResults() {
-		return testResults;
-	}
-	
-	// Setter for testResults
-	public void setTestResults(List<Integer> testResults) {
-		this.testResults = testResults;
+	// Getter for name, decoded from the table
+	public String getName() {
+		return table.name(index);
 	}
 
-	// Setter for name
-	public void setName(String name) {
-		this.name = name;
+	// Getter for index
+	public int getIndex() {
+		return index;
 	}
-	
-	// Getter for name
-	public String getName() {
-		return name;
-	}
-	
+
 	// Setter for numSubmissions
 	public void setNumSubmissions(int numSubmissions) {
 		this.numSubmissions = numSubmissions;
 	}
-	
+
 	// Getter for numSubmissions
 	public int getNumSubmissions() {
 		return numSubmissions;
@@ -0,0 +1,334 @@
+package spss;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/*
+ * The roster of a SPSS: its students by index, and an index from name to
+ * student.  Names are not kept as Strings but as UTF-8 bytes one after
+ * another in a shared arena, where the name of the student with index i
+ * starts at offsets[i] and ends at offsets[i + 1].  The name index is an
+ * open addressing hash table holding student indexes, so a student costs
+ * little more than its Student object, the bytes of its name and a few
+ * ints.  Names can be looked up straight from the bytes of an input line,
+ * without creating a String.
+ *
+ * Students are only added, by one thread at a time, and lookups take no
+ * lock.  The arrays are replaced by larger copies when they fill up; the
+ * current arrays and the number of students are published through volatile
+ * fields, so a lookup sees a student only once it is completely added.
+ */
+class StudentTable {
+	// Largest arena, the largest array the JVM reliably allocates
+	private static final int MAX_ARENA = Integer.MAX_VALUE - 8;
+
+	/*
+	 * The arrays of the table, replaced together when any of them grows.
+	 */
+	private static class State {
+		final byte[] arena;
+		final int[] offsets;
+		// Index plus one of the student in each slot, or 0 if the slot is
+		// free; the number of slots is a power of two
+		final int[] slots;
+		final Student[] students;
+
+		State(byte[] arena, int[] offsets, int[] slots, Student[] students) {
+			this.arena = arena;
+			this.offsets = offsets;
+			this.slots = slots;
+			this.students = students;
+		}
+	}
+
+	private volatile State state;
+	// Number of students, written after each student is completely added
+	private volatile int size;
+
+	/*
+	 * Constructs an empty table sized for the given number of students.
+	 *
+	 * parameter expectedStudents The number of students expected.
+	 */
+	StudentTable(int expectedStudents) {
+		int capacity = Math.max(16, expectedStudents);
+		state = new State(new byte[capacity * 8], new int[capacity + 1],
+				new int[tableSize(capacity)], new Student[capacity]);
+	}
+
+	// Return the number of slots for a number of students, keeping the
+	// table at most half full
+	private static int tableSize(int numStudents) {
+		return Integer.highestOneBit(Math.max(1, numStudents) * 2 - 1) << 1;
+	}
+
+	// Return the number of students
+	int size() {
+		return size;
+	}
+
+	/*
+	 * Adds a student with the given name, giving them the next index.
+	 * Students must be added by one thread at a time.
+	 *
+	 * parameter name The name of the student.
+	 * return The new student, or null if a student has the name already.
+	 */
+	synchronized Student add(String name) {
+		byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+		int hash = hash(bytes, 0, bytes.length);
+		State s = state;
+		int n = size;
+		if (find(s, n, bytes, 0, bytes.length, hash) != null) {
+			return null;
+		}
+
+		s = ensureCapacity(s, n, 1, bytes.length);
+		int start = s.offsets[n];
+		System.arraycopy(bytes, 0, s.arena, start, bytes.length);
+		s.offsets[n + 1] = start + bytes.length;
+		Student std = new Student(this, n);
+		s.students[n] = std;
+		insert(s.slots, hash, n);
+		// Publish the student
+		size = n + 1;
+		return std;
+	}
+
+	/*
+	 * Adds students with the given names in order, giving them the next
+	 * indexes, and publishes them all at once.  The names must differ from
+	 * each other.  Students must be added by one thread at a time.
+	 *
+	 * parameter names The names of the students.
+	 * return The new students, with null for each name a student has
+	 * already.
+	 */
+	synchronized Student[] addAll(String[] names) {
+		byte[][] bytes = new byte[names.length][];
+		int[] hashes = new int[names.length];
+		long numBytes = 0;
+		State s = state;
+		int n = size;
+		int numNew = 0;
+		for (int i = 0; i < names.length; i++) {
+			byte[] name = names[i].getBytes(StandardCharsets.UTF_8);
+			hashes[i] = hash(name, 0, name.length);
+			if (find(s, n, name, 0, name.length, hashes[i]) == null) {
+				bytes[i] = name;
+				numBytes += name.length;
+				numNew++;
+			}
+		}
+		if (numBytes > MAX_ARENA) {
+			throw new IllegalStateException("Too many student name bytes");
+		}
+
+		// Make room for all of them at once, then fill the arrays
+		s = ensureCapacity(s, n, numNew, (int) numBytes);
+		Student[] added = new Student[names.length];
+		int index = n;
+		for (int i = 0; i < names.length; i++) {
+			if (bytes[i] == null) {
+				continue;
+			}
+			int start = s.offsets[index];
+			System.arraycopy(bytes[i], 0, s.arena, start, bytes[i].length);
+			s.offsets[index + 1] = start + bytes[i].length;
+			added[i] = new Student(this, index);
+			s.students[index] = added[i];
+			insert(s.slots, hashes[i], index);
+			index++;
+		}
+		// Publish the students
+		size = index;
+		return added;
+	}
+
+	/*
+	 * Makes room for more students, publishing larger arrays if needed.
+	 *
+	 * parameter s The current arrays.
+	 * parameter n The number of students.
+	 * parameter numNew The number of new students.
+	 * parameter nameLength The total length of the new names in bytes.
+	 * return The arrays to add the students to.
+	 */
+	private State ensureCapacity(State s, int n, int numNew,
+			int nameLength) {
+		long nameEnd = (long) s.offsets[n] + nameLength;
+		if (n + numNew <= s.students.length && nameEnd <= s.arena.length) {
+			return s;
+		}
+		if (nameEnd > MAX_ARENA) {
+			throw new IllegalStateException("Too many student name bytes");
+		}
+		byte[] arena = s.arena;
+		if (nameEnd > arena.length) {
+			arena = Arrays.copyOf(arena, (int) Math.min(MAX_ARENA,
+					Math.max(nameEnd, arena.length * 2L)));
+		}
+		// Copy every array, so arrays that lookups may still be reading are
+		// never written again
+		int[] offsets = s.offsets.clone();
+		Student[] students = s.students.clone();
+		int[] slots = s.slots.clone();
+		if (n + numNew > students.length) {
+			int capacity = Math.max(n + numNew, n * 2);
+			students = Arrays.copyOf(students, capacity);
+			offsets = Arrays.copyOf(offsets, capacity + 1);
+			slots = new int[tableSize(capacity)];
+			for (int i = 0; i < n; i++) {
+				int start = offsets[i];
+				insert(slots, hash(arena, start, offsets[i + 1] - start), i);
+			}
+		}
+		State grown = new State(arena, offsets, slots, students);
+		state = grown;
+		return grown;
+	}
+
+	// Put a student's index into the first free slot for its hash
+	private static void insert(int[] slots, int hash, int index) {
+		int mask = slots.length - 1;
+		int slot = hash & mask;
+		while (slots[slot] != 0) {
+			slot = (slot + 1) & mask;
+		}
+		slots[slot] = index + 1;
+	}
+
+	/*
+	 * Returns the student with the given index.
+	 *
+	 * parameter index The index of the student.
+	 * return The student, or null if there is no student with that index.
+	 */
+	Student get(int index) {
+		// Read the size first, so the arrays read next hold the student
+		if (index < 0 || index >= size) {
+			return null;
+		}
+		return state.students[index];
+	}
+
+	/*
+	 * Looks up a student by name.
+	 *
+	 * parameter name The name.
+	 * return The student, or null if there is no student with that name.
+	 */
+	Student find(String name) {
+		// Hash and compare ASCII names char by char, without encoding them
+		int length = name.length();
+		int hash = 0;
+		for (int i = 0; i < length; i++) {
+			char c = name.charAt(i);
+			if (c >= 0x80) {
+				byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+				return find(bytes, 0, bytes.length);
+			}
+			hash = 31 * hash + c;
+		}
+		hash = spread(hash);
+
+		State s = state;
+		int mask = s.slots.length - 1;
+		for (int slot = hash & mask; s.slots[slot] != 0;
+				slot = (slot + 1) & mask) {
+			int index = s.slots[slot] - 1;
+			// A student seen in a slot may not be completely added yet, so
+			// check the published size before reading their name
+			if (index >= size) {
+				continue;
+			}
+			int start = s.offsets[index];
+			if (s.offsets[index + 1] - start == length) {
+				int i = 0;
+				while (i < length && s.arena[start + i] == name.charAt(i)) {
+					i++;
+				}
+				if (i == length) {
+					return s.students[index];
+				}
+			}
+		}
+		return null;
+	}
+
+	/*
+	 * Looks up a student by the UTF-8 bytes of their name.
+	 *
+	 * parameter bytes The bytes holding the name.
+	 * parameter start The index of the first byte of the name.
+	 * parameter end The index after the last byte of the name.
+	 * return The student, or null if there is no student with that name.
+	 */
+	Student find(byte[] bytes, int start, int end) {
+		return find(state, Integer.MAX_VALUE, bytes, start, end - start,
+				hash(bytes, start, end - start));
+	}
+
+	/*
+	 * Looks up a name in the given arrays.
+	 *
+	 * parameter s The arrays.
+	 * parameter n The number of students known to be added, or
+	 * Integer.MAX_VALUE to check against the published size.
+	 * parameter bytes The bytes holding the name.
+	 * parameter start The index of the first byte of the name.
+	 * parameter length The length of the name in bytes.
+	 * parameter hash The hash of the name.
+	 * return The student, or null if there is no student with that name.
+	 */
+	private Student find(State s, int n, byte[] bytes, int start, int length,
+			int hash) {
+		int mask = s.slots.length - 1;
+		for (int slot = hash & mask; s.slots[slot] != 0;
+				slot = (slot + 1) & mask) {
+			int index = s.slots[slot] - 1;
+			// A student seen in a slot may not be completely added yet, so
+			// check the published size before reading their name
+			if (index >= Math.min(n, size)) {
+				continue;
+			}
+			int nameStart = s.offsets[index];
+			if (s.offsets[index + 1] - nameStart == length
+					&& Arrays.equals(s.arena, nameStart, nameStart + length,
+							bytes, start, start + length)) {
+				return s.students[index];
+			}
+		}
+		return null;
+	}
+
+	/*
+	 * Returns the name of a student.
+	 *
+	 * parameter index The index of the student, who must have been added.
+	 * return The name.
+	 */
+	String name(int index) {
+		State s = state;
+		int start = s.offsets[index];
+		return new String(s.arena, start, s.offsets[index + 1] - start,
+				StandardCharsets.UTF_8);
+	}
+
+	// Return the hash of a name from its UTF-8 bytes, which for an ASCII
+	// name is the same as hashing its chars
+	private static int hash(byte[] bytes, int start, int length) {
+		int hash = 0;
+		for (int i = start; i < start + length; i++) {
+			hash = 31 * hash + bytes[i];
+		}
+		return spread(hash);
+	}
+
+	// Mix the bits of a hash, so names differing only at the end spread
+	// over the whole table
+	private static int spread(int hash) {
+		hash *= 0x9E3779B9;
+		return hash ^ (hash >>> 16);
+	}
+}
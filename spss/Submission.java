@@ -1,17 +1,30 @@
 package spss;
 
+import java.util.ArrayList;
 import java.util.List;
 
 /*
  * This class represents a submission of test results by a student.
  * The class calculates and manages the total score based on the test results.
+ * A submission never changes once constructed: the results are copied into a
+ * primitive int array, and the total score, the number of passed tests and
+ * whether every test was passed are calculated up front.  A student's best
+ * submission is replaced by publishing a new one, so readers that get hold
+ * of a submission always see all of its fields from the same results,
+ * without taking a lock.
  */
 public class Submission {
+	// Submission of a student who has not submitted yet
+	static final Submission NONE = new Submission(new int[0]);
 
-	// List of test results for the submission
-	private List<Integer> testResults;
+	// Test results for the submission, empty if there are none
+	private final int[] scores;
 	// Total score calculated from the test results
-	private int totalScore;
+	private final int totalScore;
+	// Number of tests with a score greater than 0
+	private final int numPassed;
+	// True if no test has a score of 0
+	private final boolean allPassed;
  
     /*
      * Constructs a submission with the given test results.
@@ -19,29 +32,69 @@ public class Submission {
      * parameter testResults The list of test results for the submission.
      */
 	public Submission(List<Integer> testResults) {
-		this.testResults = testResults;
-		this.totalScore = calculateTotalScore();
+		this(unbox(testResults));
 	}
 
+    /*
+     * Constructs a submission with a copy of the given test results.
+     *
+     * parameter scores The test results for the submission.
+     */
+	public Submission(int[] scores) {
+		this.scores = scores.clone();
+		int sum = 0;
+		int passed = 0;
+		for (int score : this.scores) {
+			sum += score;
+			if (score > 0) {
+				passed++;
+			}
+		}
+		this.totalScore = sum;
+		this.numPassed = passed;
+		this.allPassed = passed == this.scores.length;
+	}
 
-
-	
-	// Setter for testResults
-	public void setTestResults(List<Integer> testResults) {
-		this.testResults = testResults;
+	// Unbox a list of test results, treating null as no results
+	private static int[] unbox(List<Integer> testResults) {
+		int[] row = new int[testResults == null ? 0 : testResults.size()];
+		for (int i = 0; i < row.length; i++) {
+			row[i] = testResults.get(i);
+		}
+		return row;
 	}
 
-	// Getter for testResults
+	// Getter for testResults, boxing a copy of the scores
 	public List<Integer> getTestResults() {
+		List<Integer> testResults = new ArrayList<>(scores.length);
+		for (int score : scores) {
+			testResults.add(score);
+		}
 		return testResults;
 	}
 
-	// Calculate total score of the testResults
-	private int calculateTotalScore() {
-		int sum = 0;
-		for (int score : testResults) {
-			sum += score;
-		}
-		return sum;
+	// Getter for the scores array, which must not be modified
+	public int[] getScores() {
+		return scores;
+	}
+
+	// Getter for totalScore
+	public int getTotalScore() {
+		return totalScore;
+	}
+
+	// Getter for numPassed
+	public int getNumPassed() {
+		return numPassed;
+	}
+
+	// Return true if no test has a score of 0
+	public boolean allPassed() {
+		return allPassed;
+	}
+
+	// Return true if test results have been set
+	public boolean hasResults() {
+		return scores.length > 0;
 	}
 }
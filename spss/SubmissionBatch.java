@@ -0,0 +1,170 @@
+package spss;
+
+import java.util.Arrays;
+import java.util.List;
+
+/*
+ * A batch of submissions to be added to a SPSS at once with
+ * SPSS.addSubmissions().  Rows are kept in the order they are added, and
+ * after the batch is added, accepted() tells which of them were accepted.
+ * The scores of all rows are stored in one int array, so adding a row does
+ * not allocate once the batch has grown to its working size.
+ *
+ * A batch is not thread safe.
+ */
+public class SubmissionBatch {
+	private String[] names;
+	// Start of each row's scores in data, and its number of scores, which
+	// is -1 for a row whose results are null and -2 for a row with a null
+	// score
+	private int[] offsets;
+	private int[] lengths;
+	private int[] data;
+	private int dataSize;
+	private boolean[] accepted;
+	private int size;
+
+	/*
+	 * Constructs an empty batch.
+	 */
+	public SubmissionBatch() {
+		this(16);
+	}
+
+	/*
+	 * Constructs an empty batch with room for the given number of rows.
+	 *
+	 * parameter capacity The number of rows to make room for.
+	 */
+	public SubmissionBatch(int capacity) {
+		capacity = Math.max(1, capacity);
+		names = new String[capacity];
+		offsets = new int[capacity];
+		lengths = new int[capacity];
+		accepted = new boolean[capacity];
+		data = new int[capacity * 4];
+	}
+
+	/*
+	 * Adds a row to the batch.  A row whose list is null or contains null
+	 * is kept, and will be rejected when the batch is added.
+	 *
+	 * parameter name The name of the student.
+	 * parameter testResults The test results of the submission.
+	 */
+	public void add(String name, List<Integer> testResults) {
+		int row = newRow(name);
+		if (testResults == null) {
+			lengths[row] = -1;
+			return;
+		}
+		if (testResults.contains(null)) {
+			lengths[row] = -2;
+			return;
+		}
+		int length = testResults.size();
+		ensureData(length);
+		for (int i = 0; i < length; i++) {
+			data[dataSize + i] = testResults.get(i);
+		}
+		offsets[row] = dataSize;
+		lengths[row] = length;
+		dataSize += length;
+	}
+
+	/*
+	 * Adds a row to the batch, copying the scores.
+	 *
+	 * parameter name The name of the student.
+	 * parameter scores The test results of the submission.
+	 */
+	public void add(String name, int[] scores) {
+		int row = newRow(name);
+		if (scores == null) {
+			lengths[row] = -1;
+			return;
+		}
+		ensureData(scores.length);
+		System.arraycopy(scores, 0, data, dataSize, scores.length);
+		offsets[row] = dataSize;
+		lengths[row] = scores.length;
+		dataSize += scores.length;
+	}
+
+	// Return the number of rows in the batch
+	public int size() {
+		return size;
+	}
+
+	/*
+	 * Tells whether a row was accepted when the batch was last added.
+	 *
+	 * parameter row The index of the row.
+	 * return True if the row was accepted, false otherwise.
+	 */
+	public boolean accepted(int row) {
+		if (row < 0 || row >= size) {
+			throw new IndexOutOfBoundsException("row " + row);
+		}
+		return accepted[row];
+	}
+
+	// Remove all rows, keeping the allocated space
+	public void clear() {
+		Arrays.fill(names, 0, size, null);
+		size = 0;
+		dataSize = 0;
+	}
+
+	// Getters used by SPSS.addSubmissions()
+	String name(int row) {
+		return names[row];
+	}
+
+	int offset(int row) {
+		return offsets[row];
+	}
+
+	int length(int row) {
+		return lengths[row];
+	}
+
+	int[] data() {
+		return data;
+	}
+
+	void setAccepted(int row, boolean value) {
+		accepted[row] = value;
+	}
+
+	/*
+	 * Helper method
+	 * Appends a row with the given name and no scores, growing the arrays if
+	 * needed.
+	 *
+	 * parameter name The name of the student.
+	 * return The index of the new row.
+	 */
+	private int newRow(String name) {
+		if (size == names.length) {
+			int capacity = size * 2;
+			names = Arrays.copyOf(names, capacity);
+			offsets = Arrays.copyOf(offsets, capacity);
+			lengths = Arrays.copyOf(lengths, capacity);
+			accepted = Arrays.copyOf(accepted, capacity);
+		}
+		names[size] = name;
+		offsets[size] = dataSize;
+		lengths[size] = 0;
+		accepted[size] = false;
+		return size++;
+	}
+
+	// Make room for the given number of scores in data
+	private void ensureData(int length) {
+		if (dataSize + length > data.length) {
+			data = Arrays.copyOf(data,
+					Math.max(data.length * 2, dataSize + length));
+		}
+	}
+}
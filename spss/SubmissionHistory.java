@@ -0,0 +1,208 @@
+package spss;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/*
+ * Keeps every submission of every student, not just the best one, for
+ * looking back at later.  Each student's submissions are appended to a
+ * byte buffer of their own, each row stored as the differences from the
+ * student's previous row, zigzag and varint encoded: a score that did not
+ * change takes one byte, as does one that changed by less than 64.
+ *
+ * With a retention of N, only the last N submissions of a student are
+ * kept.  Older rows are dropped once a student has 2N, so dropping them
+ * costs little per submission and a student never holds more than 2N rows.
+ *
+ * Writes for a student are made while holding the student's lock stripe,
+ * and reads must hold it too.
+ */
+class SubmissionHistory {
+	private static final int SEGMENT_SIZE = 4096;
+
+	/*
+	 * The submissions of one student.
+	 */
+	private static class Record {
+		byte[] data = new byte[16];
+		int length;
+		// Number of rows in data, and the first of them that is retained
+		int numRows;
+		int firstRetained;
+		// The last row, which the next row is encoded against
+		final int[] last;
+
+		Record(int numTests) {
+			last = new int[numTests];
+		}
+	}
+
+	private final int numTests;
+	// Number of submissions kept per student, or 0 for all
+	private final int retention;
+	// Records by student index, in segments allocated as needed
+	private volatile Record[][] segments = new Record[0][];
+
+	/*
+	 * Constructs an empty history.
+	 *
+	 * parameter numTests The number of tests.
+	 * parameter retention The number of submissions kept per student, or 0
+	 * to keep all of them.
+	 */
+	SubmissionHistory(int numTests, int retention) {
+		this.numTests = numTests;
+		this.retention = Math.max(0, retention);
+	}
+
+	/*
+	 * Appends submissions of a student.
+	 *
+	 * parameter std The student.
+	 * parameter rows The test results of the submissions, numTests per
+	 * submission, oldest first.
+	 * parameter numRows The number of submissions.
+	 */
+	void append(Student std, int[] rows, int numRows) {
+		Record record = record(std, true);
+		for (int r = 0; r < numRows; r++) {
+			// Make room for the longest possible row, 5 bytes per score
+			if (record.length + 5 * numTests > record.data.length) {
+				record.data = Arrays.copyOf(record.data, Math.max(
+						record.data.length * 2, record.length + 5 * numTests));
+			}
+			int offset = r * numTests;
+			for (int t = 0; t < numTests; t++) {
+				int delta = rows[offset + t] - record.last[t];
+				record.length = writeVarint(record.data, record.length,
+						(delta << 1) ^ (delta >> 31));
+				record.last[t] = rows[offset + t];
+			}
+			record.numRows++;
+		}
+		if (retention > 0 && record.numRows - record.firstRetained
+				> retention) {
+			record.firstRetained = record.numRows - retention;
+			if (record.firstRetained >= retention) {
+				compact(record);
+			}
+		}
+	}
+
+	/*
+	 * Returns the retained submissions of a student.
+	 *
+	 * parameter std The student.
+	 * return The test results of each submission, oldest first.
+	 */
+	List<int[]> get(Student std) {
+		Record record = record(std, false);
+		if (record == null) {
+			return new ArrayList<>();
+		}
+		List<int[]> rows = new ArrayList<>(
+				record.numRows - record.firstRetained);
+		int[] row = new int[numTests];
+		int position = 0;
+		for (int r = 0; r < record.numRows; r++) {
+			position = decodeRow(record.data, position, row);
+			if (r >= record.firstRetained) {
+				rows.add(row.clone());
+			}
+		}
+		return rows;
+	}
+
+	// Return the number of bytes used for a student's submissions
+	int size(Student std) {
+		Record record = record(std, false);
+		return record == null ? 0 : record.length;
+	}
+
+	// Drop the rows of a record that are no longer retained, encoding the
+	// first retained row against zeros
+	private void compact(Record record) {
+		int[] row = new int[numTests];
+		int position = 0;
+		for (int r = 0; r < record.firstRetained; r++) {
+			position = decodeRow(record.data, position, row);
+		}
+		byte[] data = new byte[Math.max(16,
+				record.length - position + 5 * numTests)];
+		int length = 0;
+		int[] previous = new int[numTests];
+		for (int r = record.firstRetained; r < record.numRows; r++) {
+			position = decodeRow(record.data, position, row);
+			for (int t = 0; t < numTests; t++) {
+				int delta = row[t] - previous[t];
+				length = writeVarint(data, length, (delta << 1) ^ (delta >> 31));
+			}
+			System.arraycopy(row, 0, previous, 0, numTests);
+		}
+		record.data = data;
+		record.length = length;
+		record.numRows -= record.firstRetained;
+		record.firstRetained = 0;
+	}
+
+	// Decode the row at a position against the row before it, in place,
+	// returning the position after it
+	private int decodeRow(byte[] data, int position, int[] row) {
+		for (int t = 0; t < numTests; t++) {
+			int value = 0;
+			int shift = 0;
+			byte b;
+			do {
+				b = data[position++];
+				value |= (b & 0x7F) << shift;
+				shift += 7;
+			} while (b < 0);
+			row[t] += (value >>> 1) ^ -(value & 1);
+		}
+		return position;
+	}
+
+	// Write an int as a varint, returning the position after it
+	private static int writeVarint(byte[] data, int position, int value) {
+		while ((value & ~0x7F) != 0) {
+			data[position++] = (byte) ((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		data[position++] = (byte) value;
+		return position;
+	}
+
+	// Return the record of a student, creating it if asked to
+	private Record record(Student std, boolean create) {
+		int index = std.getIndex();
+		Record[][] current = segments;
+		int segment = index / SEGMENT_SIZE;
+		Record[] records = segment < current.length ? current[segment] : null;
+		if (records == null) {
+			if (!create) {
+				return null;
+			}
+			records = allocate(segment);
+		}
+		Record record = records[index % SEGMENT_SIZE];
+		if (record == null && create) {
+			record = new Record(numTests);
+			records[index % SEGMENT_SIZE] = record;
+		}
+		return record;
+	}
+
+	// Allocate a segment of records
+	private synchronized Record[] allocate(int segment) {
+		Record[][] current = segments;
+		if (segment < current.length && current[segment] != null) {
+			return current[segment];
+		}
+		Record[][] grown = Arrays.copyOf(current,
+				Math.max(segment + 1, current.length));
+		grown[segment] = new Record[SEGMENT_SIZE];
+		segments = grown;
+		return grown[segment];
+	}
+}
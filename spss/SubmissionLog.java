@@ -0,0 +1,493 @@
+package spss;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/*
+ * An append-only write-ahead log of the changes made to a SPSS, used to
+ * rebuild the server after a restart without reading the submission files
+ * again.
+ *
+ * The log starts with a header holding the number of tests, followed by
+ * records.  Each record is its payload length as a varint, the payload, and
+ * a CRC32 of the payload.  The payload is a type byte followed by varints:
+ *
+ *   STUDENT      name length, name bytes (UTF-8)
+ *   SUBMISSIONS  student, count, one score per test
+ *   STATE        student, count, 0 or 1, and if 1 one score per test
+ *
+ * Students are numbered in the order of their STUDENT records.  SUBMISSIONS
+ * records a number of submissions whose best has the given scores, and is
+ * applied like SPSS.applySubmissions().  STATE sets a student's count and
+ * best result, and is written when a log is started on a server that
+ * already has submissions.
+ *
+ * Appending only copies the record into a buffer.  Threads then wait in
+ * awaitDurable() until their record is on disk: the first waiting thread
+ * writes and forces everything appended so far, and the other threads wait
+ * for it, so concurrent writers share one fsync (group commit).
+ */
+class SubmissionLog implements Closeable {
+	private static final byte[] MAGIC =
+			"SPSSLOG1".getBytes(StandardCharsets.US_ASCII);
+	static final byte STUDENT = 1;
+	static final byte SUBMISSIONS = 2;
+	static final byte STATE = 3;
+
+	private final FileChannel channel;
+	private final int numTests;
+	private final CRC32 crc = new CRC32();
+	// Records appended but not yet written, and a spare buffer to swap in
+	// while they are written
+	private byte[] pending = new byte[64 * 1024];
+	private int pendingSize;
+	private byte[] spare = new byte[64 * 1024];
+	// Payload of the record being appended
+	private byte[] payload = new byte[256];
+	private int payloadSize;
+	// Number of records appended, and number known to be on disk
+	private long appended;
+	private long durable;
+	// True while a thread is writing records
+	private boolean writing;
+	// The exception that stopped writing, rethrown to every later caller
+	private IOException failure;
+
+	/*
+	 * Opens a log for appending at the given position, discarding anything
+	 * after it.
+	 *
+	 * parameter channel The file, opened for writing.
+	 * parameter numTests The number of tests of the server.
+	 * parameter position The position to append at.
+	 */
+	private SubmissionLog(FileChannel channel, int numTests, long position)
+			throws IOException {
+		this.channel = channel;
+		this.numTests = numTests;
+		channel.truncate(position);
+		channel.position(position);
+	}
+
+	/*
+	 * Creates a new log file.
+	 *
+	 * parameter file The file, which must not exist.
+	 * parameter numTests The number of tests of the server.
+	 * return The log.
+	 */
+	static SubmissionLog create(Path file, int numTests) throws IOException {
+		FileChannel channel = FileChannel.open(file,
+				StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+		try {
+			ByteBuffer header = ByteBuffer.allocate(MAGIC.length + 4);
+			header.put(MAGIC).putInt(numTests).flip();
+			while (header.hasRemaining()) {
+				channel.write(header);
+			}
+			channel.force(true);
+			return new SubmissionLog(channel, numTests, channel.position());
+		} catch (IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	/*
+	 * Reads a log file, applying its records to a new server, and opens it
+	 * for appending after the last complete record.  A record cut off or
+	 * damaged by a crash ends the log; it and anything after it is
+	 * discarded.
+	 *
+	 * parameter file The log file.
+	 * return The server, with the log attached.
+	 */
+	static SPSS recover(Path file) throws IOException {
+		FileChannel channel = FileChannel.open(file, StandardOpenOption.READ,
+				StandardOpenOption.WRITE);
+		try {
+			InputStream in = new BufferedInputStream(
+					Channels.newInputStream(channel), 64 * 1024);
+			byte[] magic = new byte[MAGIC.length];
+			readFully(in, magic, magic.length);
+			if (!Arrays.equals(magic, MAGIC)) {
+				throw new IOException("Not a submission log: " + file);
+			}
+			byte[] header = new byte[4];
+			readFully(in, header, header.length);
+			int numTests = ByteBuffer.wrap(header).getInt();
+			if (numTests <= 0) {
+				throw new IOException("Bad submission log header: " + file);
+			}
+			SPSS server = new SPSS(numTests);
+			long position = MAGIC.length + 4;
+			Replay replay = new Replay(server, numTests);
+			while (true) {
+				int length = replay.readRecord(in);
+				if (length < 0) {
+					break;
+				}
+				position += length;
+			}
+			server.attachLog(new SubmissionLog(channel, numTests, position));
+			return server;
+		} catch (IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	/*
+	 * Appends a STUDENT record.
+	 *
+	 * parameter name The name of the student.
+	 * return The sequence number of the record, for awaitDurable().
+	 */
+	synchronized long appendStudent(String name) {
+		byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+		payloadSize = 0;
+		payload(STUDENT);
+		varint(bytes.length);
+		ensurePayload(bytes.length);
+		System.arraycopy(bytes, 0, payload, payloadSize, bytes.length);
+		payloadSize += bytes.length;
+		return appendPayload();
+	}
+
+	/*
+	 * Appends a SUBMISSIONS record.
+	 *
+	 * parameter student The index of the student.
+	 * parameter count The number of submissions.
+	 * parameter best The scores of the best of the submissions.
+	 * return The sequence number of the record, for awaitDurable().
+	 */
+	synchronized long appendSubmissions(int student, int count, int[] best) {
+		payloadSize = 0;
+		payload(SUBMISSIONS);
+		varint(student);
+		varint(count);
+		for (int i = 0; i < numTests; i++) {
+			varint(best[i]);
+		}
+		return appendPayload();
+	}
+
+	/*
+	 * Appends a STATE record.
+	 *
+	 * parameter student The index of the student.
+	 * parameter count The number of submissions of the student.
+	 * parameter best The scores of the best submission, or null if there is
+	 * none.
+	 * return The sequence number of the record, for awaitDurable().
+	 */
+	synchronized long appendState(int student, int count, int[] best) {
+		payloadSize = 0;
+		payload(STATE);
+		varint(student);
+		varint(count);
+		payload(best == null ? 0 : 1);
+		if (best != null) {
+			for (int i = 0; i < numTests; i++) {
+				varint(best[i]);
+			}
+		}
+		return appendPayload();
+	}
+
+	/*
+	 * Waits until the record with the given sequence number, and all before
+	 * it, are on disk.  If no other thread is writing, this thread writes
+	 * all records appended so far.
+	 *
+	 * parameter seq The sequence number returned when appending.
+	 */
+	void awaitDurable(long seq) {
+		byte[] toWrite;
+		int size;
+		long target;
+		synchronized (this) {
+			while (true) {
+				if (failure != null) {
+					throw new UncheckedIOException(failure);
+				}
+				if (durable >= seq) {
+					return;
+				}
+				if (!writing) {
+					break;
+				}
+				try {
+					wait();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new UncheckedIOException(new IOException(
+							"Interrupted waiting for the log", e));
+				}
+			}
+			// Become the writer of everything appended so far
+			writing = true;
+			toWrite = pending;
+			size = pendingSize;
+			target = appended;
+			pending = spare;
+			pendingSize = 0;
+		}
+
+		IOException error = null;
+		try {
+			ByteBuffer buffer = ByteBuffer.wrap(toWrite, 0, size);
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+			channel.force(false);
+		} catch (IOException e) {
+			error = e;
+		}
+
+		synchronized (this) {
+			writing = false;
+			spare = toWrite;
+			if (error != null) {
+				failure = error;
+			} else {
+				durable = target;
+			}
+			notifyAll();
+			if (error != null) {
+				throw new UncheckedIOException(error);
+			}
+		}
+	}
+
+	/*
+	 * Writes and forces all appended records, and closes the file.
+	 */
+	@Override
+	public void close() throws IOException {
+		long last;
+		synchronized (this) {
+			last = appended;
+		}
+		try {
+			awaitDurable(last);
+		} catch (UncheckedIOException e) {
+			channel.close();
+			throw e.getCause();
+		}
+		channel.close();
+	}
+
+	// Append the payload as a record, returning its sequence number
+	private long appendPayload() {
+		crc.reset();
+		crc.update(payload, 0, payloadSize);
+		int crcValue = (int) crc.getValue();
+		ensurePending(5 + payloadSize + 4);
+		pendingSize = writeVarint(pending, pendingSize, payloadSize);
+		System.arraycopy(payload, 0, pending, pendingSize, payloadSize);
+		pendingSize += payloadSize;
+		pending[pendingSize++] = (byte) (crcValue >>> 24);
+		pending[pendingSize++] = (byte) (crcValue >>> 16);
+		pending[pendingSize++] = (byte) (crcValue >>> 8);
+		pending[pendingSize++] = (byte) crcValue;
+		return ++appended;
+	}
+
+	private void payload(int b) {
+		ensurePayload(1);
+		payload[payloadSize++] = (byte) b;
+	}
+
+	private void varint(int value) {
+		ensurePayload(5);
+		payloadSize = writeVarint(payload, payloadSize, value);
+	}
+
+	private void ensurePayload(int length) {
+		if (payloadSize + length > payload.length) {
+			payload = Arrays.copyOf(payload,
+					Math.max(payload.length * 2, payloadSize + length));
+		}
+	}
+
+	private void ensurePending(int length) {
+		if (pendingSize + length > pending.length) {
+			pending = Arrays.copyOf(pending,
+					Math.max(pending.length * 2, pendingSize + length));
+		}
+	}
+
+	// Write an unsigned varint, returning the position after it
+	private static int writeVarint(byte[] bytes, int position, int value) {
+		while ((value & ~0x7F) != 0) {
+			bytes[position++] = (byte) ((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		bytes[position++] = (byte) value;
+		return position;
+	}
+
+	private static void readFully(InputStream in, byte[] bytes, int length)
+			throws IOException {
+		int read = 0;
+		while (read < length) {
+			int n = in.read(bytes, read, length - read);
+			if (n < 0) {
+				throw new EOFException();
+			}
+			read += n;
+		}
+	}
+
+	/*
+	 * Applies the records of a log to a server.
+	 */
+	private static class Replay {
+		private final SPSS server;
+		private final int numTests;
+		private final CRC32 crc = new CRC32();
+		private final int[] row;
+		private byte[] payload = new byte[256];
+		private int position;
+		private int end;
+		// Students in the order of their STUDENT records
+		private Student[] students = new Student[64];
+		private int numStudents;
+
+		Replay(SPSS server, int numTests) {
+			this.server = server;
+			this.numTests = numTests;
+			this.row = new int[numTests];
+		}
+
+		/*
+		 * Reads and applies one record.
+		 *
+		 * return The number of bytes of the record, or -1 if the log ends
+		 * here, either at the end of the file or at an incomplete or damaged
+		 * record.
+		 */
+		int readRecord(InputStream in) throws IOException {
+			int length = 0;
+			int headerLength = 0;
+			for (int shift = 0; ; shift += 7) {
+				int b = in.read();
+				if (b < 0 || shift > 28) {
+					return -1;
+				}
+				headerLength++;
+				length |= (b & 0x7F) << shift;
+				if ((b & 0x80) == 0) {
+					break;
+				}
+			}
+			if (length <= 0 || length > (1 << 24)) {
+				return -1;
+			}
+			if (payload.length < length + 4) {
+				payload = new byte[length + 4];
+			}
+			try {
+				readFully(in, payload, length + 4);
+			} catch (EOFException e) {
+				return -1;
+			}
+			crc.reset();
+			crc.update(payload, 0, length);
+			int stored = ((payload[length] & 0xFF) << 24)
+					| ((payload[length + 1] & 0xFF) << 16)
+					| ((payload[length + 2] & 0xFF) << 8)
+					| (payload[length + 3] & 0xFF);
+			if (stored != (int) crc.getValue()) {
+				return -1;
+			}
+			position = 0;
+			end = length;
+			if (!apply()) {
+				return -1;
+			}
+			return headerLength + length + 4;
+		}
+
+		// Apply the record in the payload, returning false if it is invalid
+		private boolean apply() {
+			byte type = payload[position++];
+			if (type == STUDENT) {
+				int length = varint();
+				if (length < 0 || position + length > end) {
+					return false;
+				}
+				String name = new String(payload, position, length,
+						StandardCharsets.UTF_8);
+				if (!server.addStudent(name)) {
+					return false;
+				}
+				if (numStudents == students.length) {
+					students = Arrays.copyOf(students, numStudents * 2);
+				}
+				students[numStudents++] = server.findStd(name);
+				return true;
+			}
+			if (type == SUBMISSIONS || type == STATE) {
+				int student = varint();
+				int count = varint();
+				if (student < 0 || student >= numStudents || count < 0) {
+					return false;
+				}
+				boolean hasBest = type == SUBMISSIONS
+						|| (position < end && payload[position++] == 1);
+				if (hasBest) {
+					for (int i = 0; i < numTests; i++) {
+						row[i] = varint();
+					}
+				}
+				if (position > end) {
+					return false;
+				}
+				Student std = students[student];
+				if (type == SUBMISSIONS) {
+					int total = server.calculateTotalScore(row);
+					if (total < 0) {
+						return false;
+					}
+					server.applySubmissions(std, count, 1, row, total,
+							null, 0);
+				} else {
+					server.restoreSubmissions(std, count,
+							hasBest ? row : null);
+				}
+				return true;
+			}
+			return false;
+		}
+
+		// Read an unsigned varint from the payload
+		private int varint() {
+			int value = 0;
+			for (int shift = 0; shift <= 28 && position < end; shift += 7) {
+				int b = payload[position++];
+				value |= (b & 0x7F) << shift;
+				if ((b & 0x80) == 0) {
+					return value;
+				}
+			}
+			// Make the caller see that the record is cut off
+			position = end + 1;
+			return 0;
+		}
+	}
+}
@@ -0,0 +1,455 @@
+package spss;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/*
+ * Parses submission lines of the form "name score score ..." directly from
+ * bytes and adds them to a SPSS.  Input is read into a reused buffer, and the
+ * scores of each line are parsed into a reused int array, so no objects are
+ * created per line.  The name of a line is looked up straight from its
+ * bytes, and only when it differs from the name on the previous line.
+ * Parsed lines are collected in a tally and handed to the server in
+ * batches.
+ *
+ * A parser is not thread safe; each reading thread uses its own.
+ */
+class SubmissionParser {
+	private static final int BUFFER_SIZE = 64 * 1024;
+	// Largest size the buffer grows to, which holds at least one whole line
+	private static final int MAX_LINE = 1024 * 1024;
+	// Number of lines collected before they are applied to the server
+	private static final int BATCH_LINES = 4096;
+
+	/*
+	 * A source of bytes to parse, read like an InputStream: read() blocks
+	 * until at least one byte is available, and returns -1 at the end.  A
+	 * source that starts over from its beginning, such as a truncated file,
+	 * returns RESET once, so the bytes of the line read before are dropped.
+	 */
+	interface Source {
+		int RESET = -2;
+
+		int read(byte[] bytes, int offset, int length) throws IOException;
+	}
+
+	private final SPSS server;
+	// Tally collecting the submissions
+	private final SubmissionTally tally;
+	// True if the tally is applied by this parser, false if it belongs to
+	// the caller
+	private final boolean applyTally;
+	// Number of lines collected in the tally since it was last applied
+	private int batchLines;
+	// Number of lines parsed, and of those rejected by reason ordinal
+	private long numLines;
+	private final long[] rejected = new long[RejectReason.values().length];
+	// Sink receiving rejected lines, and the name of the file being parsed
+	private DeadLetterSink deadLetters;
+	private String fileName;
+	// Line being parsed, for handing it to the sink if it is rejected
+	private byte[] line;
+	private int lineStart;
+	private int lineEnd;
+	// Buffer holding the bytes read but not yet parsed
+	private byte[] buffer;
+	// Scores of the line being parsed
+	private final int[] row;
+	// Name on the previous line, and the student it named
+	private byte[] lastName;
+	private int lastNameLength;
+	private Student lastStudent;
+
+	/*
+	 * Constructs a parser adding submissions to the given server.
+	 *
+	 * parameter server The server to add submissions to.
+	 * parameter numTests The number of tests of the server.
+	 */
+	SubmissionParser(SPSS server, int numTests) {
+		this(server, numTests, null);
+	}
+
+	/*
+	 * Constructs a parser collecting submissions into a tally instead of
+	 * adding them to the server.
+	 *
+	 * parameter server The server to look up students in.
+	 * parameter numTests The number of tests of the server.
+	 * parameter tally The tally to collect submissions into, which the caller
+	 * applies, or null to add them to the server.
+	 */
+	SubmissionParser(SPSS server, int numTests, SubmissionTally tally) {
+		this(server, numTests, tally == null ? new SubmissionTally(server)
+				: tally, tally == null);
+	}
+
+	/*
+	 * Constructs a parser collecting submissions into a tally.
+	 *
+	 * parameter server The server to look up students in.
+	 * parameter numTests The number of tests of the server.
+	 * parameter tally The tally to collect submissions into.
+	 * parameter applyTally True if the parser applies the tally in batches,
+	 * false if the caller applies it.
+	 */
+	SubmissionParser(SPSS server, int numTests, SubmissionTally tally,
+			boolean applyTally) {
+		this.server = server;
+		this.applyTally = applyTally;
+		this.tally = tally;
+		this.buffer = new byte[BUFFER_SIZE];
+		this.row = new int[numTests];
+		this.lastName = new byte[64];
+	}
+
+	/*
+	 * Reads lines from the stream until it ends, adding the submission on
+	 * each line.  The stream is not closed.
+	 *
+	 * parameter in The stream to read.
+	 */
+	void parse(InputStream in) throws IOException {
+		parse((Source) in::read);
+	}
+
+	/*
+	 * Parses the remaining bytes of a buffer, such as a memory mapped range
+	 * of a file, adding the submission on each line.
+	 *
+	 * parameter bytes The buffer to parse.
+	 */
+	void parse(ByteBuffer bytes) {
+		try {
+			parse((Source) (b, offset, length) -> {
+				if (!bytes.hasRemaining()) {
+					return -1;
+				}
+				int n = Math.min(length, bytes.remaining());
+				bytes.get(b, offset, n);
+				return n;
+			});
+		} catch (IOException e) {
+			// Reading from a buffer does not throw
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/*
+	 * Reads lines from the source until it ends, adding the submission on
+	 * each line.  The lines read so far are applied after every read, so
+	 * the submissions of a live source show up as they arrive.
+	 *
+	 * parameter source The source to read.
+	 */
+	void parse(Source source) throws IOException {
+		parse(source, true);
+	}
+
+	/*
+	 * Reads lines from the source until it ends, as parse(Source) does.  A
+	 * line that does not fit into MAX_LINE bytes with its newline is
+	 * rejected as LINE_TOO_LONG, handing only its first MAX_LINE bytes to
+	 * the dead-letter sink, and skipped up to its newline.  When the source
+	 * is reset, a partial line read before is rejected as INCOMPLETE_LINE.
+	 *
+	 * parameter source The source to read.
+	 * parameter lastLineComplete True if a last line without a newline is
+	 * complete, false if it may still be being written, in which case it is
+	 * rejected as INCOMPLETE_LINE instead of parsed.
+	 */
+	void parse(Source source, boolean lastLineComplete) throws IOException {
+		int length = 0;
+		// True while dropping the rest of a line that was too long
+		boolean skipping = false;
+		int n;
+		while ((n = source.read(buffer, length, buffer.length - length))
+				!= -1) {
+			if (n == Source.RESET) {
+				if (length > 0) {
+					rejectLine(length, RejectReason.INCOMPLETE_LINE);
+				}
+				length = 0;
+				skipping = false;
+				continue;
+			}
+			length += n;
+			int consumed = 0;
+			if (skipping) {
+				int newline = indexOfNewline(buffer, 0, length);
+				skipping = newline < 0;
+				consumed = skipping ? length : newline + 1;
+			}
+			if (!skipping) {
+				consumed += parseLines(buffer, consumed, length);
+			}
+			// Move the partial last line to the front of the buffer, growing
+			// the buffer if one line does not fit into it
+			length -= consumed;
+			if (consumed > 0) {
+				System.arraycopy(buffer, consumed, buffer, 0, length);
+			} else if (length == buffer.length) {
+				if (buffer.length >= MAX_LINE) {
+					rejectLine(length, RejectReason.LINE_TOO_LONG);
+					length = 0;
+					skipping = true;
+				} else {
+					byte[] larger = new byte[Math.min(buffer.length * 2,
+							MAX_LINE)];
+					System.arraycopy(buffer, 0, larger, 0, length);
+					buffer = larger;
+				}
+			}
+			flush();
+		}
+		// The last line may not end with a newline
+		if (length > 0) {
+			if (lastLineComplete) {
+				parseLine(buffer, 0, length);
+			} else {
+				rejectLine(length, RejectReason.INCOMPLETE_LINE);
+			}
+		}
+		flush();
+	}
+
+	// Reject the line of the given length at the start of the buffer
+	// without parsing it
+	private void rejectLine(int length, RejectReason reason) {
+		numLines++;
+		line = buffer;
+		lineStart = 0;
+		lineEnd = length;
+		reject(reason);
+	}
+
+	/*
+	 * Applies the lines collected so far to the server, unless the tally
+	 * belongs to the caller.
+	 */
+	void flush() {
+		if (applyTally && !tally.isEmpty()) {
+			tally.apply();
+		}
+		batchLines = 0;
+	}
+
+	/*
+	 * Parses all complete lines in a range of bytes.
+	 *
+	 * parameter bytes The bytes to parse.
+	 * parameter start The index of the first byte.
+	 * parameter end The index after the last byte.
+	 * return The number of bytes consumed, which ends after the last newline.
+	 */
+	private int parseLines(byte[] bytes, int start, int end) {
+		int lineStart = start;
+		for (int i = start; i < end; i++) {
+			if (bytes[i] == '\n') {
+				parseLine(bytes, lineStart, i);
+				lineStart = i + 1;
+			}
+		}
+		return lineStart - start;
+	}
+
+	/*
+	 * Parses one line without its newline and collects its submission.  Like
+	 * splitting the line on whitespace, the name is everything before the
+	 * first whitespace, and each following run of whitespace separates two
+	 * scores.
+	 *
+	 * parameter bytes The bytes holding the line.
+	 * parameter start The index of the first byte of the line.
+	 * parameter end The index after the last byte of the line.
+	 * return True if the submission on the line is valid, false otherwise.
+	 */
+	boolean parseLine(byte[] bytes, int start, int end) {
+		numLines++;
+		line = bytes;
+		lineStart = start;
+		lineEnd = end;
+		// Find the end of the name
+		int nameEnd = start;
+		while (nameEnd < end && !isWhitespace(bytes[nameEnd])) {
+			nameEnd++;
+		}
+		if (nameEnd == start) {
+			return reject(RejectReason.EMPTY_NAME);
+		}
+
+		// Parse the scores into the row
+		int count = 0;
+		int i = nameEnd;
+		while (true) {
+			while (i < end && isWhitespace(bytes[i])) {
+				i++;
+			}
+			if (i == end) {
+				break;
+			}
+			if (count == row.length) {
+				// Too many scores
+				return reject(RejectReason.WRONG_NUMBER_OF_TESTS);
+			}
+			boolean negative = false;
+			if (bytes[i] == '-' || bytes[i] == '+') {
+				negative = bytes[i] == '-';
+				i++;
+			}
+			int digitsStart = i;
+			long value = 0;
+			while (i < end && !isWhitespace(bytes[i])) {
+				int digit = bytes[i] - '0';
+				if (digit < 0 || digit > 9) {
+					// Not a number
+					return reject(RejectReason.MALFORMED_SCORE);
+				}
+				value = value * 10 + digit;
+				if (value > (long) Integer.MAX_VALUE + 1) {
+					// Does not fit into an int
+					return reject(RejectReason.MALFORMED_SCORE);
+				}
+				i++;
+			}
+			if (i == digitsStart) {
+				// A sign without digits
+				return reject(RejectReason.MALFORMED_SCORE);
+			}
+			value = negative ? -value : value;
+			if (value > Integer.MAX_VALUE) {
+				return reject(RejectReason.MALFORMED_SCORE);
+			}
+			row[count++] = (int) value;
+		}
+		if (count != row.length) {
+			// Too few scores
+			return reject(RejectReason.WRONG_NUMBER_OF_TESTS);
+		}
+
+		Student std = lookup(bytes, start, nameEnd);
+		if (std == null) {
+			return reject(RejectReason.UNKNOWN_STUDENT);
+		}
+		if (!tally.add(std, row)) {
+			// The server counted the reason in its metrics
+			deadLetter(hasNegative(row) ? RejectReason.NEGATIVE_SCORE
+					: RejectReason.SCORE_OVERFLOW);
+			return false;
+		}
+		if (++batchLines == BATCH_LINES) {
+			flush();
+		}
+		return true;
+	}
+
+	// Return the number of lines parsed so far
+	long numLines() {
+		return numLines;
+	}
+
+	/*
+	 * Sends the lines this parser rejects to a sink, numbered from the
+	 * start of the file.  The parser must parse the whole file from its
+	 * start.
+	 *
+	 * parameter name The name of the file being parsed.
+	 * parameter sink The sink, or null to only count rejected lines.
+	 */
+	void setDeadLetters(String name, DeadLetterSink sink) {
+		this.fileName = name;
+		this.deadLetters = sink;
+	}
+
+	/*
+	 * Returns a summary of the lines parsed so far.
+	 *
+	 * parameter name The name of the file being parsed.
+	 * parameter failure The exception that stopped parsing, or null.
+	 * return The summary.
+	 */
+	FileSummary summary(String name, Exception failure) {
+		return new FileSummary(name, numLines, rejected.clone(), failure);
+	}
+
+	// Count a rejected line in the server's metrics, and return false
+	private boolean reject(RejectReason reason) {
+		server.getMetrics().rejected(reason);
+		deadLetter(reason);
+		return false;
+	}
+
+	// Count the line being parsed as rejected, handing it to the sink
+	private void deadLetter(RejectReason reason) {
+		rejected[reason.ordinal()]++;
+		if (deadLetters != null) {
+			int end = lineEnd;
+			if (end > lineStart && line[end - 1] == '\r') {
+				end--;
+			}
+			deadLetters.reject(fileName, numLines, reason, new String(line,
+					lineStart, end - lineStart, StandardCharsets.UTF_8));
+		}
+	}
+
+	/*
+	 * Looks up the student named by a range of bytes, reusing the student of
+	 * the previous line if it has the same name.
+	 *
+	 * parameter bytes The bytes holding the name.
+	 * parameter start The index of the first byte of the name.
+	 * parameter end The index after the last byte of the name.
+	 * return The student, or null if there is no student with that name.
+	 */
+	private Student lookup(byte[] bytes, int start, int end) {
+		int length = end - start;
+		if (lastStudent != null && length == lastNameLength) {
+			int i = 0;
+			while (i < length && lastName[i] == bytes[start + i]) {
+				i++;
+			}
+			if (i == length) {
+				return lastStudent;
+			}
+		}
+
+		Student std = server.findStd(bytes, start, end);
+		if (std != null) {
+			if (lastName.length < length) {
+				lastName = new byte[length];
+			}
+			System.arraycopy(bytes, start, lastName, 0, length);
+			lastNameLength = length;
+			lastStudent = std;
+		}
+		return std;
+	}
+
+	// Return the index of the first newline in a range of bytes, or -1
+	private static int indexOfNewline(byte[] bytes, int start, int end) {
+		for (int i = start; i < end; i++) {
+			if (bytes[i] == '\n') {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	// Return true if a row has a negative score
+	private static boolean hasNegative(int[] row) {
+		for (int score : row) {
+			if (score < 0) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	// Return true if the byte is a whitespace character matched by \s
+	private static boolean isWhitespace(byte b) {
+		return b == ' ' || b == '\t' || b == '\r' || b == '\n' || b == 0x0B
+				|| b == '\f';
+	}
+}
@@ -0,0 +1,208 @@
+package spss;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/*
+ * Adds submissions to a SPSS asynchronously.  Callers put their submission
+ * into a bounded queue and get a future right away; one applier thread
+ * takes everything queued, up to MAX_BATCH submissions, adds it to the
+ * server as one SubmissionBatch and then hands the batch's futures to an
+ * executor, which completes them together.
+ *
+ * While submissions arrive slowly each batch holds only one, so the
+ * latency is that of addSubmission(); under load the batches grow, and
+ * each student's lock and the write-ahead log are taken once per batch
+ * rather than once per submission.  When the queue is full a submission is
+ * rejected instead of waiting.
+ *
+ * Callbacks that do not name an executor of their own run on the executor
+ * completing the futures, so a slow callback delays the futures of later
+ * batches but never the applier, unless that executor runs its tasks in
+ * the calling thread.
+ */
+public class SubmissionQueue implements Closeable {
+	// Number of submissions added to the server at once at most
+	private static final int MAX_BATCH = 4096;
+	private static final AtomicInteger threadNumber = new AtomicInteger();
+
+	/*
+	 * A queued submission and the future to complete once it is added.
+	 */
+	private static class Request {
+		final String name;
+		final List<Integer> testResults;
+		final CompletableFuture<Boolean> future = new CompletableFuture<>();
+
+		Request(String name, List<Integer> testResults) {
+			this.name = name;
+			this.testResults = testResults;
+		}
+	}
+
+	// Queued after the last submission once the queue is closed
+	private static final Request CLOSE = new Request(null, null);
+
+	private final SPSS server;
+	private final BlockingQueue<Request> queue;
+	// Executor completing the futures of each batch
+	private final Executor completions;
+	private final Thread applier;
+	// Submitting holds the read lock, so once closing has taken the write
+	// lock no submission can be queued after CLOSE
+	private final ReadWriteLock closeLock = new ReentrantReadWriteLock();
+	private boolean closed;
+
+	/*
+	 * Constructs a queue and starts its applier thread.
+	 *
+	 * parameter server The server to add submissions to.
+	 * parameter capacity The number of submissions that may wait at once.
+	 * parameter completions The executor completing the futures of each
+	 * batch.
+	 */
+	SubmissionQueue(SPSS server, int capacity, Executor completions) {
+		this.server = server;
+		this.queue = new ArrayBlockingQueue<>(Math.max(1, capacity));
+		this.completions = completions;
+		applier = new Thread(this::applyAll,
+				"spss-async-" + threadNumber.incrementAndGet());
+		applier.setDaemon(true);
+		applier.start();
+	}
+
+	/*
+	 * Queues a submission.  The results are copied, so the caller may change
+	 * the list afterwards.
+	 *
+	 * parameter name The name of the student.
+	 * parameter testResults The test results of the submission.
+	 * return A future completed with true if the submission is added, false
+	 * if it is invalid as for SPSS.addSubmission(), or exceptionally with a
+	 * RejectedExecutionException if the queue is full or closed.
+	 */
+	public CompletableFuture<Boolean> submit(String name,
+			List<Integer> testResults) {
+		Request request = new Request(name,
+				testResults == null ? null : new ArrayList<>(testResults));
+		closeLock.readLock().lock();
+		try {
+			if (closed || !queue.offer(request)) {
+				request.future.completeExceptionally(
+						new RejectedExecutionException("Submission queue is "
+								+ (closed ? "closed" : "full")));
+			}
+		} finally {
+			closeLock.readLock().unlock();
+		}
+		return request.future;
+	}
+
+	/*
+	 * Rejects new submissions, waits until the queued ones are added to the
+	 * server and stops the applier.  Their futures are completed by the
+	 * executor, possibly after this returns.
+	 */
+	@Override
+	public void close() {
+		closeLock.writeLock().lock();
+		try {
+			if (closed) {
+				return;
+			}
+			closed = true;
+		} finally {
+			closeLock.writeLock().unlock();
+		}
+		// The applier makes room for CLOSE as it takes the submissions
+		boolean interrupted = false;
+		while (true) {
+			try {
+				queue.put(CLOSE);
+				break;
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		while (applier.isAlive()) {
+			try {
+				applier.join();
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	// Add queued submissions in batches until the queue is closed
+	private void applyAll() {
+		List<Request> requests = new ArrayList<>();
+		SubmissionBatch batch = new SubmissionBatch(MAX_BATCH);
+		boolean closing = false;
+		while (!closing) {
+			try {
+				requests.add(queue.take());
+			} catch (InterruptedException e) {
+				// Only close() stops the applier
+				continue;
+			}
+			queue.drainTo(requests, MAX_BATCH - 1);
+			// CLOSE is always the last request
+			if (requests.get(requests.size() - 1) == CLOSE) {
+				requests.remove(requests.size() - 1);
+				closing = true;
+			}
+			if (requests.isEmpty()) {
+				continue;
+			}
+			for (Request request : requests) {
+				batch.add(request.name, request.testResults);
+			}
+			complete(requests, batch);
+			// The completion keeps the list, so start a new one
+			requests = new ArrayList<>();
+			batch.clear();
+		}
+	}
+
+	// Add a batch to the server and have its futures completed
+	private void complete(List<Request> requests, SubmissionBatch batch) {
+		boolean[] accepted = new boolean[requests.size()];
+		RuntimeException failure = null;
+		try {
+			server.addSubmissions(batch);
+			for (int row = 0; row < accepted.length; row++) {
+				accepted[row] = batch.accepted(row);
+			}
+		} catch (RuntimeException e) {
+			failure = e;
+		}
+		RuntimeException cause = failure;
+		Runnable completion = () -> {
+			for (int row = 0; row < accepted.length; row++) {
+				if (cause != null) {
+					requests.get(row).future.completeExceptionally(cause);
+				} else {
+					requests.get(row).future.complete(accepted[row]);
+				}
+			}
+		};
+		try {
+			completions.execute(completion);
+		} catch (RejectedExecutionException e) {
+			// The submissions are added; do not leave their callers waiting
+			completion.run();
+		}
+	}
+}
@@ -0,0 +1,458 @@
+package spss;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * A TCP front end for a SPSS.  Graders connect and send submissions in the
+ * same "name score score ..." lines as the submission files, and may send
+ * any number of lines without waiting for answers.  After the lines that
+ * arrived together have been added, and with a write-ahead log are on
+ * disk, the server answers with one line
+ *
+ *   OK accepted rejected
+ *
+ * counting the valid and invalid submissions among them.  Lines starting
+ * with '?' are queries, answered with one line each, in order:
+ *
+ *   ?score name            the score of the student, or -1
+ *   ?satisfactory name     true or false
+ *   ?gotExtraCredit name   true or false
+ *   ?numSubmissions name   the number of submissions of the student, or -1
+ *   ?numSubmissions        the number of submissions of all students
+ *
+ * Submissions sent before a query are added before it is answered.  An
+ * unknown query is answered with "ERR unknown query", and submissions that
+ * cannot be added because the write-ahead log failed with
+ * "ERR submissions not added".
+ *
+ * All connections are served by one thread with a selector, so thousands
+ * of graders need no more threads than two: the selector thread only
+ * reads, parses and writes, and hands the parsed submissions and the
+ * queries to a second thread, which adds the submissions to the server and
+ * answers in the order the lines arrived.  A connection is not read from
+ * while the lines it sent last are being added, nor while its answers are
+ * not being read, so a grader sending faster than the server adds is held
+ * back by its connection.
+ */
+public class SubmissionServer implements Closeable {
+	// Initial and largest size of a connection's input buffer, which holds
+	// at least one whole line
+	private static final int BUFFER_SIZE = 8 * 1024;
+	private static final int MAX_LINE = 1024 * 1024;
+
+	/*
+	 * The state of one connection.
+	 */
+	private static class Connection {
+		ByteBuffer in = ByteBuffer.allocate(BUFFER_SIZE);
+		ByteBuffer out = ByteBuffer.allocate(0);
+		// Submissions since the last answer
+		int accepted;
+		int rejected;
+		// True once the grader is done sending
+		boolean inputDone;
+	}
+
+	/*
+	 * The work for the lines read from a connection at once, done by the
+	 * applier in the order of the lines: adding submissions and answering
+	 * queries.  The answers are handed back to the selector thread.
+	 */
+	private class Batch implements Runnable {
+		final SelectionKey key;
+		final List<Runnable> steps = new ArrayList<>();
+		final StringBuilder answers = new StringBuilder();
+
+		Batch(SelectionKey key) {
+			this.key = key;
+		}
+
+		@Override
+		public void run() {
+			try {
+				for (Runnable step : steps) {
+					step.run();
+				}
+			} finally {
+				completed.add(this);
+				selector.wakeup();
+			}
+		}
+	}
+
+	private final SPSS server;
+	private final Selector selector;
+	private final ServerSocketChannel listener;
+	private final Thread thread;
+	// Thread adding the parsed submissions and answering queries
+	private final ExecutorService applier;
+	// Parser shared by all connections, as they are served by one thread
+	private final SubmissionParser parser;
+	// Tally the parser collects into, emptied after every read
+	private final SubmissionTally tally;
+	// Batches the applier is done with, to be answered by the selector
+	// thread
+	private final ConcurrentLinkedQueue<Batch> completed =
+			new ConcurrentLinkedQueue<>();
+	private volatile boolean closed;
+
+	/*
+	 * Starts a server listening on the given address.
+	 *
+	 * parameter server The server to add submissions to.
+	 * parameter numTests The number of tests of the server.
+	 * parameter address The address to listen on.
+	 */
+	SubmissionServer(SPSS server, int numTests, InetSocketAddress address)
+			throws IOException {
+		this.server = server;
+		this.tally = new SubmissionTally(server);
+		this.parser = new SubmissionParser(server, numTests, tally, false);
+		this.selector = Selector.open();
+		try {
+			listener = ServerSocketChannel.open();
+			listener.bind(address);
+			listener.configureBlocking(false);
+			listener.register(selector, SelectionKey.OP_ACCEPT);
+		} catch (IOException e) {
+			selector.close();
+			throw e;
+		}
+		applier = Executors.newSingleThreadExecutor(task -> {
+			Thread applierThread = new Thread(task, "spss-server-apply");
+			applierThread.setDaemon(true);
+			return applierThread;
+		});
+		thread = new Thread(this::serve, "spss-server");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	// Return the port the server listens on
+	public int getPort() {
+		return listener.socket().getLocalPort();
+	}
+
+	/*
+	 * Serves connections until the server is closed.
+	 */
+	private void serve() {
+		try {
+			while (!closed) {
+				selector.select();
+				Batch batch;
+				while ((batch = completed.poll()) != null) {
+					try {
+						finish(batch);
+					} catch (IOException e) {
+						disconnect(batch.key);
+					}
+				}
+				Iterator<SelectionKey> keys =
+						selector.selectedKeys().iterator();
+				while (keys.hasNext()) {
+					SelectionKey key = keys.next();
+					keys.remove();
+					try {
+						if (key.isAcceptable()) {
+							accept();
+						} else {
+							if (key.isWritable()) {
+								write(key);
+							}
+							if (key.isValid() && key.isReadable()) {
+								read(key);
+							}
+						}
+					} catch (IOException e) {
+						// The grader went away; drop the connection
+						disconnect(key);
+					}
+				}
+			}
+		} catch (IOException e) {
+			// The selector failed; stop serving
+		} finally {
+			for (SelectionKey key : selector.keys()) {
+				disconnect(key);
+			}
+			try {
+				selector.close();
+			} catch (IOException e) {
+				// Every connection is closed already
+			}
+		}
+	}
+
+	// Accept a waiting connection
+	private void accept() throws IOException {
+		SocketChannel channel = listener.accept();
+		if (channel != null) {
+			channel.configureBlocking(false);
+			channel.register(selector, SelectionKey.OP_READ,
+					new Connection());
+		}
+	}
+
+	/*
+	 * Reads what a connection has sent, parses every complete line and
+	 * hands the work for the lines to the applier.  The connection is not
+	 * read from again until the applier is done.
+	 *
+	 * parameter key The key of the connection.
+	 */
+	private void read(SelectionKey key) throws IOException {
+		SocketChannel channel = (SocketChannel) key.channel();
+		Connection conn = (Connection) key.attachment();
+		int n = channel.read(conn.in);
+		byte[] bytes = conn.in.array();
+		int end = conn.in.position();
+		Batch batch = new Batch(key);
+
+		// Handle the complete lines, and at the end of input the last line
+		int lineStart = 0;
+		for (int i = 0; i < end; i++) {
+			if (bytes[i] == '\n') {
+				handleLine(conn, batch, bytes, lineStart, i);
+				lineStart = i + 1;
+			}
+		}
+		if (n == -1 && lineStart < end) {
+			handleLine(conn, batch, bytes, lineStart, end);
+			lineStart = end;
+		}
+		answerSubmissions(conn, batch);
+
+		// Keep the partial last line, growing the buffer if it is full
+		conn.in.flip().position(lineStart);
+		conn.in.compact();
+		if (!conn.in.hasRemaining()) {
+			if (conn.in.capacity() >= MAX_LINE) {
+				batch.steps.add(() ->
+						batch.answers.append("ERR line too long\n"));
+				n = -1;
+			} else {
+				ByteBuffer larger = ByteBuffer.allocate(
+						conn.in.capacity() * 2);
+				conn.in.flip();
+				larger.put(conn.in);
+				conn.in = larger;
+			}
+		}
+
+		if (n == -1) {
+			// The grader is done sending; close once the answers are out
+			channel.shutdownInput();
+			conn.inputDone = true;
+		}
+		if (batch.steps.isEmpty()) {
+			finish(batch);
+		} else {
+			key.interestOps(0);
+			applier.execute(batch);
+		}
+	}
+
+	/*
+	 * Sends the answers of a batch the applier is done with, and reads from
+	 * the connection again once they are out, or closes it if the grader
+	 * is done sending.
+	 *
+	 * parameter batch The batch.
+	 */
+	private void finish(Batch batch) throws IOException {
+		SelectionKey key = batch.key;
+		if (!key.isValid()) {
+			// The connection was dropped while the batch was applied
+			return;
+		}
+		Connection conn = (Connection) key.attachment();
+		if (conn.inputDone) {
+			conn.in = null;
+		}
+		send(key, conn, batch.answers);
+	}
+
+	/*
+	 * Handles one line, without its newline: a submission is parsed into
+	 * the tally, and a query is added to the batch.
+	 *
+	 * parameter conn The connection that sent the line.
+	 * parameter batch The batch of the lines read together.
+	 * parameter bytes The bytes holding the line.
+	 * parameter start The index of the first byte of the line.
+	 * parameter end The index after the last byte of the line.
+	 */
+	private void handleLine(Connection conn, Batch batch, byte[] bytes,
+			int start, int end) {
+		if (end > start && bytes[end - 1] == '\r') {
+			end--;
+		}
+		if (end == start) {
+			return;
+		}
+		if (bytes[start] != '?') {
+			if (parser.parseLine(bytes, start, end)) {
+				conn.accepted++;
+			} else {
+				conn.rejected++;
+			}
+			return;
+		}
+
+		// Add the submissions before the query, so it sees them
+		answerSubmissions(conn, batch);
+		String query = new String(bytes, start + 1, end - start - 1,
+				StandardCharsets.UTF_8).trim();
+		batch.steps.add(() -> batch.answers.append(answer(query))
+				.append('\n'));
+	}
+
+	/*
+	 * Answers a query.  Called by the applier.
+	 *
+	 * parameter query The query, without its '?'.
+	 * return The answer, without a newline.
+	 */
+	private String answer(String query) {
+		int space = query.indexOf(' ');
+		String command = space < 0 ? query : query.substring(0, space);
+		String name = space < 0 ? null : query.substring(space + 1).trim();
+		switch (command) {
+		case "score":
+			return String.valueOf(server.score(name));
+		case "satisfactory":
+			return String.valueOf(server.satisfactory(name));
+		case "gotExtraCredit":
+			return String.valueOf(server.gotExtraCredit(name));
+		case "numSubmissions":
+			return String.valueOf(name == null ? server.numSubmissions()
+					: server.numSubmissions(name));
+		default:
+			return "ERR unknown query";
+		}
+	}
+
+	/*
+	 * Hands the submissions parsed so far to the batch, to be added and
+	 * then answered, if there are any.
+	 *
+	 * parameter conn The connection that sent the submissions.
+	 * parameter batch The batch of the lines read together.
+	 */
+	private void answerSubmissions(Connection conn, Batch batch) {
+		parser.flush();
+		if (conn.accepted + conn.rejected > 0) {
+			SubmissionTally submissions = tally.take();
+			String answer = "OK " + conn.accepted + " " + conn.rejected
+					+ "\n";
+			batch.steps.add(() -> {
+				try {
+					submissions.apply();
+					batch.answers.append(answer);
+				} catch (RuntimeException e) {
+					// The write-ahead log failed
+					batch.answers.append("ERR submissions not added\n");
+				}
+			});
+			conn.accepted = 0;
+			conn.rejected = 0;
+		}
+	}
+
+	/*
+	 * Queues answers for a connection and sends as much as it takes.
+	 * While answers are left over, the connection is not read from.
+	 *
+	 * parameter key The key of the connection.
+	 * parameter conn The connection.
+	 * parameter answers The answers to queue.
+	 */
+	private void send(SelectionKey key, Connection conn,
+			StringBuilder answers) throws IOException {
+		if (answers.length() > 0) {
+			byte[] bytes = answers.toString().getBytes(StandardCharsets.UTF_8);
+			if (conn.out.remaining() + bytes.length > conn.out.capacity()) {
+				ByteBuffer larger = ByteBuffer.allocate(
+						conn.out.remaining() + bytes.length);
+				larger.put(conn.out);
+				conn.out = larger;
+			} else {
+				conn.out.compact();
+			}
+			conn.out.put(bytes).flip();
+		}
+		write(key);
+	}
+
+	// Send what the connection takes of its queued answers
+	private void write(SelectionKey key) throws IOException {
+		Connection conn = (Connection) key.attachment();
+		((SocketChannel) key.channel()).write(conn.out);
+		if (conn.in == null) {
+			// The grader is done sending
+			if (conn.out.hasRemaining()) {
+				key.interestOps(SelectionKey.OP_WRITE);
+			} else {
+				disconnect(key);
+			}
+		} else {
+			key.interestOps(conn.out.hasRemaining()
+					? SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+		}
+	}
+
+	// Close a connection
+	private void disconnect(SelectionKey key) {
+		key.cancel();
+		try {
+			key.channel().close();
+		} catch (IOException e) {
+			// The connection is gone either way
+		}
+	}
+
+	/*
+	 * Stops the server, closing every connection.  Submissions received
+	 * before are added before this returns.
+	 */
+	@Override
+	public void close() {
+		closed = true;
+		selector.wakeup();
+		boolean interrupted = false;
+		while (thread.isAlive()) {
+			try {
+				thread.join();
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		applier.shutdown();
+		while (!applier.isTerminated()) {
+			try {
+				applier.awaitTermination(1, TimeUnit.MINUTES);
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
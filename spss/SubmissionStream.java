@@ -0,0 +1,231 @@
+package spss;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+ * Adds submissions to a SPSS from sources that are still being written:
+ * streams and channels that are read until they end, and files that are
+ * followed as lines are appended to them, like "tail -f".  Each source is
+ * read by its own thread, and the lines read are applied after every read,
+ * so scores can be queried while the sources are still being written.
+ *
+ * A source is only read once the lines read before have been applied, and
+ * at most one read buffer per source is held in memory.  A grader writing
+ * faster than the server applies is therefore held back by the stream or
+ * the file rather than filling the heap.
+ *
+ * drain() waits until every source has been read to its end, and close()
+ * stops reading right away.
+ */
+public class SubmissionStream implements Closeable {
+	private static final AtomicInteger threadNumber = new AtomicInteger();
+
+	private final SPSS server;
+	private final int numTests;
+	// Milliseconds to wait before looking for new lines in a followed file
+	private final long pollMillis;
+	private final IngestReport report = new IngestReport();
+	private final List<Thread> readers = new ArrayList<>();
+	private final List<Closeable> sources = new ArrayList<>();
+	// Set once followed files are to be read only up to their current end
+	private volatile boolean draining;
+	// Set once reading is to stop right away
+	private volatile boolean closed;
+
+	/*
+	 * Constructs a stream adding submissions to the given server.
+	 *
+	 * parameter server The server to add submissions to.
+	 * parameter numTests The number of tests of the server.
+	 * parameter pollMillis The milliseconds to wait before looking for new
+	 * lines in a followed file.
+	 */
+	SubmissionStream(SPSS server, int numTests, long pollMillis) {
+		this.server = server;
+		this.numTests = numTests;
+		this.pollMillis = Math.max(1, pollMillis);
+	}
+
+	/*
+	 * Reads submissions from a stream until it ends.  The stream is closed
+	 * when it has been read.
+	 *
+	 * parameter name The name of the source, used in the report and the
+	 * metrics.
+	 * parameter in The stream to read.
+	 */
+	public void read(String name, InputStream in) {
+		start(name, in, true, in::read);
+	}
+
+	/*
+	 * Reads submissions from a blocking channel until it ends.  The channel
+	 * is closed when it has been read.
+	 *
+	 * parameter name The name of the source, used in the report and the
+	 * metrics.
+	 * parameter channel The channel to read.
+	 */
+	public void read(String name, ReadableByteChannel channel) {
+		start(name, channel, true, (bytes, offset, length) ->
+				channel.read(ByteBuffer.wrap(bytes, offset, length)));
+	}
+
+	/*
+	 * Follows a file, reading submissions from its start and then every
+	 * line appended to it, until drain() or close() is called.  If the file
+	 * is truncated, it is read again from its start, and a partial line read
+	 * before the truncation is rejected as INCOMPLETE_LINE.  When draining,
+	 * a last line without a newline may still be being written, so it is
+	 * rejected as INCOMPLETE_LINE rather than parsed.
+	 *
+	 * parameter file The file to follow.
+	 */
+	public void tail(Path file) throws IOException {
+		FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+		// The file may end in a line still being written
+		start(file.toString(), channel, false, (bytes, offset, length) -> {
+			ByteBuffer buffer = ByteBuffer.wrap(bytes, offset, length);
+			while (true) {
+				int n = channel.read(buffer);
+				if (n > 0) {
+					return n;
+				}
+				// At the end of the file, stop if draining, or else wait for
+				// more lines
+				if (closed) {
+					throw new ClosedChannelException();
+				}
+				if (draining) {
+					return -1;
+				}
+				if (channel.size() < channel.position()) {
+					channel.position(0);
+					return SubmissionParser.Source.RESET;
+				}
+				try {
+					Thread.sleep(pollMillis);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return -1;
+				}
+			}
+		});
+	}
+
+	/*
+	 * Helper method
+	 * Starts a thread reading a source.
+	 *
+	 * parameter name The name of the source.
+	 * parameter closeable The source to close when it has been read.
+	 * parameter lastLineComplete True if a last line without a newline is
+	 * complete, false to reject it as INCOMPLETE_LINE.
+	 * parameter source The source to read from.
+	 */
+	private synchronized void start(String name, Closeable closeable,
+			boolean lastLineComplete, SubmissionParser.Source source) {
+		if (draining || closed) {
+			closeQuietly(closeable);
+			throw new IllegalStateException("The stream is "
+					+ (closed ? "closed" : "draining"));
+		}
+		Thread reader = new Thread(() -> {
+			SubmissionParser parser = new SubmissionParser(server, numTests);
+			long start = System.nanoTime();
+			Exception failure = null;
+			try {
+				parser.parse(source, lastLineComplete);
+			} catch (IOException | RuntimeException e) {
+				// Closing a source makes its reader fail; that is no error
+				if (!closed) {
+					failure = e;
+					report.addFailure(name, e);
+				}
+			} finally {
+				parser.flush();
+				report.addSummary(parser.summary(name, failure));
+				closeQuietly(closeable);
+				server.getMetrics().fileRead(name, parser.numLines(),
+						System.nanoTime() - start);
+			}
+		}, "spss-stream-" + threadNumber.incrementAndGet());
+		reader.setDaemon(true);
+		readers.add(reader);
+		sources.add(closeable);
+		reader.start();
+	}
+
+	/*
+	 * Stops following files once they have been read to their current end,
+	 * and waits until every source has been read.  No sources can be added
+	 * afterwards.
+	 */
+	public void drain() throws InterruptedException {
+		List<Thread> toJoin;
+		synchronized (this) {
+			draining = true;
+			toJoin = new ArrayList<>(readers);
+		}
+		for (Thread reader : toJoin) {
+			reader.join();
+		}
+	}
+
+	/*
+	 * Stops reading every source right away and closes them.  Lines that
+	 * were completely read are applied; the rest are dropped.
+	 */
+	@Override
+	public void close() {
+		List<Thread> toJoin;
+		synchronized (this) {
+			closed = true;
+			for (Closeable closeable : sources) {
+				closeQuietly(closeable);
+			}
+			toJoin = new ArrayList<>(readers);
+		}
+		// The readers are not interrupted, as that would also close the
+		// write-ahead log if one of them is forcing it to disk
+		boolean interrupted = false;
+		for (Thread reader : toJoin) {
+			while (reader.isAlive()) {
+				try {
+					reader.join();
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	// Return a report of the sources that failed to be read, and a summary
+	// of each source that has been read
+	public IngestReport getReport() {
+		return report;
+	}
+
+	// Close a source, ignoring any error
+	private static void closeQuietly(Closeable closeable) {
+		try {
+			closeable.close();
+		} catch (IOException e) {
+			// The source is not read any more either way
+		}
+	}
+}
@@ -0,0 +1,139 @@
+package spss;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/*
+ * Collects submissions per student without applying them, keeping for each
+ * student the number of valid submissions and the best one among them.
+ * Later submissions win ties, as they do in SPSS.addSubmission(), so applying
+ * a tally has the same result as adding its submissions one at a time in
+ * the order they were collected.
+ *
+ * When the server keeps a history of submissions, the tally also keeps
+ * every valid submission in order, so the history misses none of them.
+ *
+ * A tally is not thread safe; each parsing thread fills its own.
+ */
+class SubmissionTally {
+
+	/*
+	 * The submissions collected for one student.
+	 */
+	private static class Entry {
+		int count;
+		int[] best;
+		int bestTotal;
+		// Number of submissions at least as good as every one before them,
+		// each of which replaces the best when the tally is applied
+		int replacements;
+		// Every submission, numTests ints each, if the server keeps a
+		// history
+		int[] rows;
+		int numRows;
+	}
+
+	private final SPSS server;
+	private final Map<Student, Entry> entries = new LinkedHashMap<>();
+
+	/*
+	 * Constructs an empty tally for the given server.
+	 *
+	 * parameter server The server the submissions will be applied to.
+	 */
+	SubmissionTally(SPSS server) {
+		this.server = server;
+	}
+
+	/*
+	 * Collects a submission of a student.  The scores are copied if they are
+	 * the student's best so far, so the caller may reuse the array.
+	 *
+	 * parameter std The student who made the submission.
+	 * parameter scores The test results of the submission.
+	 * return True if the submission is valid, false otherwise.
+	 */
+	boolean add(Student std, int[] scores) {
+		return add(std, scores, 0, scores.length);
+	}
+
+	/*
+	 * Collects a submission of a student whose scores are a range of an
+	 * array.  The scores are copied if they are the student's best so far.
+	 *
+	 * parameter std The student who made the submission.
+	 * parameter scores The array holding the test results.
+	 * parameter offset The index of the first test result.
+	 * parameter length The number of test results.
+	 * return True if the submission is valid, false otherwise.
+	 */
+	boolean add(Student std, int[] scores, int offset, int length) {
+		int total = server.calculateTotalScore(scores, offset, length);
+		if (total < 0) {
+			return false;
+		}
+
+		Entry entry = entries.get(std);
+		if (entry == null) {
+			entry = new Entry();
+			entry.best = new int[length];
+			entry.bestTotal = -1;
+			entries.put(std, entry);
+		}
+		entry.count++;
+		if (server.keepsHistory()) {
+			if (entry.rows == null) {
+				entry.rows = new int[length * 4];
+			} else if ((entry.numRows + 1) * length > entry.rows.length) {
+				entry.rows = Arrays.copyOf(entry.rows, entry.rows.length * 2);
+			}
+			System.arraycopy(scores, offset, entry.rows,
+					entry.numRows * length, length);
+			entry.numRows++;
+		}
+		if (entry.bestTotal <= total) {
+			System.arraycopy(scores, offset, entry.best, 0, length);
+			entry.bestTotal = total;
+			entry.replacements++;
+		}
+		return true;
+	}
+
+	/*
+	 * Moves the collected submissions into a new tally and empties this
+	 * one, so they can be applied by another thread while this one collects
+	 * more.
+	 *
+	 * return The new tally.
+	 */
+	SubmissionTally take() {
+		SubmissionTally taken = new SubmissionTally(server);
+		taken.entries.putAll(entries);
+		entries.clear();
+		return taken;
+	}
+
+	// Return true if no submissions have been collected
+	boolean isEmpty() {
+		return entries.isEmpty();
+	}
+
+	/*
+	 * Applies the collected submissions to the server, taking each student's
+	 * lock once, and empties the tally.  If the server has a write-ahead
+	 * log, this returns once all of the tally's records are on disk.
+	 */
+	void apply() {
+		long logSeq = 0;
+		for (Map.Entry<Student, Entry> e : entries.entrySet()) {
+			Entry entry = e.getValue();
+			logSeq = Math.max(logSeq, server.applySubmissions(e.getKey(),
+					entry.count, entry.replacements, entry.best,
+					entry.bestTotal, entry.rows, entry.numRows));
+		}
+		entries.clear();
+		// Wait for the log once for the whole tally
+		server.awaitLog(logSeq);
+	}
+}
@@ -2,11 +2,1222 @@ package tests;
 
 import org.junit.*;
 
+import spss.CourseStatistics;
+import spss.DeadLetterFile;
+import spss.FileSummary;
+import spss.IngestExecutors;
+import spss.IngestMetrics;
+import spss.IngestReport;
+import spss.RejectReason;
 import spss.SPSS;
+import spss.ShardedIngest;
+import spss.SubmissionBatch;
+import spss.SubmissionQueue;
+import spss.SubmissionServer;
+import spss.SubmissionStream;
 
 import static org.junit.Assert.*;
 
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.stream.Stream;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
 
 public class StudentTests {
+
+    // Tests that duplicate and empty names are rejected by addStudent(), and
+    // that lookups find students by exact name in a larger roster.
+    @Test public void testStudentIndex() {
+        SPSS server= new SPSS(3);
+
+        for (int i = 0; i < 1000; i++) {
+            assertTrue(server.addStudent("student" + i));
+        }
+        assertFalse(server.addStudent("student500"));
+        assertFalse(server.addStudent(""));
+        assertFalse(server.addStudent(null));
+
+        assertEquals(1000, server.numStudents());
+        assertEquals(500, server.indexOfStd("student500"));
+        assertEquals(-1, server.indexOfStd("Student500"));
+        assertTrue(server.containStd("student999"));
+        assertFalse(server.containStd(null));
+
+        assertTrue(server.addSubmission("student7", Arrays.asList(1, 2, 3)));
+        assertFalse(server.addSubmission("student1000",
+                                         Arrays.asList(1, 2, 3)));
+        assertEquals(6, server.score("student7"));
+        assertEquals(-1, server.score("student1000"));
+        assertEquals(1, server.numSubmissions());
+    }
+
+    // Tests that submissions added by several threads at once, both for
+    // the same student and for different students, are all counted and the
+    // best one is kept.
+    @Test public void testConcurrentSubmissions() throws InterruptedException {
+        SPSS server= new SPSS(2);
+
+        for (int i = 0; i < 8; i++) {
+            server.addStudent("s" + i);
+        }
+
+        Thread[] threads= new Thread[8];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t]= new Thread(() -> {
+                for (int i = 0; i < 1000; i++) {
+                    server.addSubmission("s" + (i % 8), Arrays.asList(i, 1));
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(8000, server.numSubmissions());
+        assertEquals(1000, server.numSubmissions("s3"));
+        assertEquals(996, server.score("s3"));
+    }
+
+    // Returns the only summary of the given file in a report, or null.
+    private static FileSummary summaryOf(IngestReport report,
+                                         String fileName) {
+        FileSummary found= null;
+        for (FileSummary summary : report.getSummaries()) {
+            if (summary.getFileName().equals(fileName)) {
+                assertNull(found);
+                found= summary;
+            }
+        }
+        return found;
+    }
+
+    // Writes the given text to a new file in the current directory, which
+    // is deleted when the tests exit, and returns its name.
+    private static String writeInput(String text) throws IOException {
+        Path file= Files.createTempFile(Paths.get("."), "student", "-input");
+        file.toFile().deleteOnExit();
+        Files.write(file, text.getBytes(StandardCharsets.UTF_8));
+        return file.getFileName().toString();
+    }
+
+    // Tests reading a file with tabs, aligned columns, carriage returns,
+    // malformed lines and no newline at the end.
+    @Test public void testReadMalformedLines() throws IOException {
+        SPSS server= new SPSS(3);
+
+        server.addStudent("Ann");
+        server.addStudent("Bob");
+
+        String fileName= writeInput("Ann  1\t 2   3\r\n" +
+                                    "Ann 1 2\n" +
+                                    "Ann 1 2 3 4\n" +
+                                    "Ann 1 x 3\n" +
+                                    "Ann 1 -2 3\n" +
+                                    "Ann 1 99999999999 3\n" +
+                                    " Ann 5 5 5\n" +
+                                    "\n" +
+                                    "Carl 7 7 7\n" +
+                                    "Bob 4 0 4  \n" +
+                                    "Ann 2 2 2");
+
+        assertTrue(server.readSubmissionsConcurrently(
+                       Arrays.asList(fileName)));
+
+        assertEquals(3, server.numSubmissions());
+        assertEquals(2, server.numSubmissions("Ann"));
+        assertEquals(6, server.score("Ann"));
+        assertTrue(server.gotExtraCredit("Ann"));
+        assertEquals(8, server.score("Bob"));
+        assertFalse(server.gotExtraCredit("Bob"));
+    }
+
+    // Tests that reading one file with several threads gives the same
+    // results as reading it with one, including which of several
+    // submissions with the same total is kept.
+    @Test public void testReadInParallel() throws IOException {
+        StringBuilder text= new StringBuilder();
+        for (int i = 0; i < 20000; i++) {
+            int a= (i * 7) % 5;
+            text.append("s" + (i % 10) + " " + a + " " + (4 - a) + "\n");
+        }
+        String fileName= writeInput(text.toString());
+
+        SPSS sequential= new SPSS(2);
+        SPSS parallel= new SPSS(2);
+        for (int i = 0; i < 11; i++) {
+            sequential.addStudent("s" + i);
+            parallel.addStudent("s" + i);
+        }
+
+        assertTrue(sequential.readSubmissionsConcurrently(
+                       Arrays.asList(fileName)));
+        assertTrue(parallel.readSubmissionsInParallel(fileName, 4));
+
+        assertEquals(20000, parallel.numSubmissions());
+        for (int i = 0; i < 11; i++) {
+            String name= "s" + i;
+            assertEquals(sequential.numSubmissions(name),
+                         parallel.numSubmissions(name));
+            assertEquals(sequential.score(name), parallel.score(name));
+            assertEquals(sequential.gotExtraCredit(name),
+                         parallel.gotExtraCredit(name));
+        }
+        assertFalse(parallel.readSubmissionsInParallel("nonexistent-file",
+                                                       4));
+
+        // The failure is reported rather than printed
+        ExecutorService executor= IngestExecutors.bounded(2);
+        IngestReport report;
+        try {
+            report= parallel.readSubmissionsInParallel("nonexistent-file",
+                                                       executor, 4);
+            assertTrue(parallel.readSubmissionsInParallel(fileName, executor,
+                                                          4).isSuccessful());
+        } finally {
+            executor.shutdown();
+        }
+        assertTrue(report.getFailures().get("nonexistent-file")
+                   instanceof NoSuchFileException);
+        assertEquals(40000, parallel.numSubmissions());
+
+        // A range that is not parsed keeps the ones that are from being
+        // applied
+        List<Runnable> ranges= new ArrayList<>();
+        report= parallel.readSubmissionsInParallel(fileName, task -> {
+                if (!ranges.isEmpty()) {
+                    throw new RejectedExecutionException();
+                }
+                ranges.add(task);
+                task.run();
+            }, 4);
+        assertEquals(1, ranges.size());
+        assertTrue(report.getFailures().get(fileName)
+                   instanceof RejectedExecutionException);
+        assertEquals(40000, parallel.numSubmissions());
+    }
+
+    // Tests reading many files with a small bounded pool, and that the
+    // files which cannot be read are reported.
+    @Test public void testReadWithExecutor() {
+        SPSS server= new SPSS(5);
+
+        server.addStudent("GinnyGiraffe");
+        server.addStudent("WallyWalrus");
+
+        List<String> fileNames= new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            fileNames.add("public9-input");
+        }
+        fileNames.add("nonexistent-file");
+
+        ExecutorService executor= IngestExecutors.bounded(2);
+        IngestReport report;
+        try {
+            report= server.readSubmissionsConcurrently(fileNames, executor);
+        } finally {
+            executor.shutdown();
+        }
+
+        assertFalse(report.isSuccessful());
+        assertEquals(1, report.getFailures().size());
+        assertTrue(report.getFailures().containsKey("nonexistent-file"));
+        assertEquals(1300, server.numSubmissions());
+
+        // Every read of the same file has its own summary
+        assertEquals(101, report.getSummaries().size());
+        long accepted= 0;
+        for (FileSummary summary : report.getSummaries()) {
+            accepted+= summary.getNumAccepted();
+        }
+        assertEquals(1300, accepted);
+        assertEquals(75, server.score("GinnyGiraffe"));
+        assertEquals(85, server.score("WallyWalrus"));
+    }
+
+    // Tests that files given to an executor that is shut down are reported
+    // as failed instead of waited for forever
+    @Test(timeout= 10000) public void testReadWithShutDownExecutor() {
+        SPSS server= new SPSS(5);
+        server.addStudent("GinnyGiraffe");
+
+        for (ExecutorService executor : Arrays.asList(
+                 IngestExecutors.bounded(1),
+                 IngestExecutors.virtualThreads(1))) {
+            executor.shutdown();
+            IngestReport report= server.readSubmissionsConcurrently(
+                Arrays.asList("public9-input", "public9-input"), executor);
+            assertFalse(report.isSuccessful());
+            assertTrue(report.getFailures().get("public9-input")
+                       instanceof RejectedExecutionException);
+            assertEquals(2, report.getNumFailures());
+            assertEquals(2, report.getSummaries().size());
+        }
+        assertEquals(0, server.numSubmissions());
+    }
+
+    // Tests adding submissions as int arrays: the array is copied, and
+    // wrong lengths, negative scores and totals too large for an int are
+    // rejected with their reasons.
+    @Test public void testAddSubmissionArray() throws IOException {
+        SPSS server= new SPSS(3);
+        server.addStudent("Ann");
+
+        int[] scores= {1, 2, 3};
+        assertTrue(server.addSubmission("Ann", scores));
+        scores[0]= 100;
+        assertEquals(6, server.score("Ann"));
+        assertFalse(server.addSubmission("Ann", new int[] {1, 2}));
+        assertFalse(server.addSubmission("Ann", new int[] {1, -2, 3}));
+        assertFalse(server.addSubmission("Ann", (int[]) null));
+
+        // A total that would wrap around, negative or back to positive
+        int max= Integer.MAX_VALUE;
+        assertFalse(server.addSubmission("Ann", new int[] {max, 1, 0}));
+        assertFalse(server.addSubmission("Ann", new int[] {max, max, 2}));
+        assertTrue(server.addSubmission("Ann", new int[] {max - 2, 1, 1}));
+        assertEquals(max, server.score("Ann"));
+        assertEquals(2, server.numSubmissions("Ann"));
+
+        server.readSubmissionsConcurrently(Arrays.asList(
+            writeInput("Ann " + max + " " + max + " 2\n")));
+        IngestMetrics.Snapshot snapshot= server.getMetrics().snapshot();
+        assertEquals(3, snapshot.getRejected(RejectReason.SCORE_OVERFLOW));
+        assertEquals(1, snapshot.getRejected(RejectReason.NEGATIVE_SCORE));
+        assertEquals(1, snapshot.getRejected(
+                            RejectReason.WRONG_NUMBER_OF_TESTS));
+        assertEquals(1, snapshot.getRejected(RejectReason.NULL_RESULTS));
+        assertEquals(6, snapshot.getRejected());
+        assertEquals(max, server.score("Ann"));
+    }
+
+    // Tests that the number of submissions and whether a student is
+    // satisfactory or got extra credit follow the best submission as it is
+    // replaced, however the submissions are added, and that rejected
+    // submissions are not counted.
+    @Test public void testMaintainedCounts() throws IOException {
+        SPSS server= new SPSS(4);
+        server.addStudent("Ann");
+        server.addStudent("Bob");
+
+        assertFalse(server.satisfactory("Ann"));
+        assertEquals(0, server.numSubmissions("Ann"));
+
+        server.addSubmission("Ann", new int[] {1, 0, 0, 0});
+        assertFalse(server.satisfactory("Ann"));
+        server.addSubmission("Ann", Arrays.asList(5, 5, 0, 0));
+        assertTrue(server.satisfactory("Ann"));
+        assertFalse(server.gotExtraCredit("Ann"));
+        // A lower score does not replace the best submission
+        server.addSubmission("Ann", new int[] {1, 1, 1, 1});
+        assertFalse(server.gotExtraCredit("Ann"));
+        server.addSubmission("Ann", new int[] {3, 3, 3, 3});
+        assertTrue(server.satisfactory("Ann"));
+        assertTrue(server.gotExtraCredit("Ann"));
+        // A higher score with fewer passed tests does
+        server.addSubmission("Ann", new int[] {0, 0, 0, 20});
+        assertFalse(server.satisfactory("Ann"));
+        assertFalse(server.gotExtraCredit("Ann"));
+        server.addSubmission("Ann", new int[] {1, -1, 1, 100});
+        assertEquals(5, server.numSubmissions("Ann"));
+        assertEquals(5, server.numSubmissions());
+
+        SubmissionBatch batch= new SubmissionBatch(2);
+        batch.add("Bob", new int[] {0, 1, 1, 0});
+        batch.add("Bob", new int[] {2, 2, 2, 2});
+        batch.add("Bob", new int[] {1, 1});
+        assertEquals(2, server.addSubmissions(batch));
+        assertTrue(server.gotExtraCredit("Bob"));
+
+        server.readSubmissionsConcurrently(Arrays.asList(
+            writeInput("Bob 9 9 0 0\nCarl 1 1 1 1\nAnn 7 7 7 7\n")));
+        assertTrue(server.satisfactory("Bob"));
+        assertFalse(server.gotExtraCredit("Bob"));
+        assertTrue(server.gotExtraCredit("Ann"));
+        assertEquals(3, server.numSubmissions("Bob"));
+        assertEquals(6, server.numSubmissions("Ann"));
+        assertEquals(9, server.numSubmissions());
+    }
+
+    // Tests that adding a batch of submissions has the same result as
+    // adding them one at a time, and reports which rows were accepted.
+    @Test public void testAddSubmissions() {
+        SPSS server= new SPSS(3);
+
+        server.addStudent("Ann");
+        server.addStudent("Bob");
+        server.addSubmission("Ann", Arrays.asList(5, 5, 5));
+
+        SubmissionBatch batch= new SubmissionBatch(2);
+        batch.add("Ann", Arrays.asList(9, 0, 6));
+        batch.add("Bob", new int[] {1, 1, 1});
+        batch.add("Carl", Arrays.asList(1, 1, 1));
+        batch.add("Ann", Arrays.asList(1, null, 1));
+        batch.add("Bob", Arrays.asList(1, -1, 1));
+        batch.add("Bob", Arrays.asList(1, 1));
+        batch.add("Ann", new int[] {5, 6, 4});
+        batch.add(null, new int[] {4, 4, 4});
+        batch.add("Ann", Arrays.asList(1, 1, 1));
+
+        assertEquals(4, server.addSubmissions(batch));
+        assertTrue(batch.accepted(0));
+        assertTrue(batch.accepted(1));
+        assertFalse(batch.accepted(2));
+        assertFalse(batch.accepted(3));
+        assertFalse(batch.accepted(4));
+        assertFalse(batch.accepted(5));
+        assertTrue(batch.accepted(6));
+        assertFalse(batch.accepted(7));
+        assertTrue(batch.accepted(8));
+
+        assertEquals(4, server.numSubmissions("Ann"));
+        assertEquals(15, server.score("Ann"));
+        assertTrue(server.gotExtraCredit("Ann"));
+        assertEquals(1, server.numSubmissions("Bob"));
+        assertEquals(3, server.score("Bob"));
+    }
+
+    // Tests the ranking of students by score as their best scores change.
+    @Test public void testRanking() {
+        SPSS server= new SPSS(2);
+
+        for (String name : new String[] {"a", "b", "c", "d", "e"}) {
+            server.addStudent(name);
+        }
+        server.addSubmission("a", Arrays.asList(5, 5));
+        server.addSubmission("b", Arrays.asList(9, 9));
+        server.addSubmission("c", Arrays.asList(5, 5));
+        server.addSubmission("d", Arrays.asList(1, 0));
+
+        assertEquals(Arrays.asList("b", "a", "c"), server.topK(3));
+        assertEquals(1, server.rankOf("b"));
+        assertEquals(2, server.rankOf("a"));
+        assertEquals(2, server.rankOf("c"));
+        assertEquals(4, server.rankOf("d"));
+        assertEquals(-1, server.rankOf("e"));
+        assertEquals(3, server.numScoredAtLeast(10));
+        assertEquals(4, server.numScoredAtLeast(0));
+
+        server.addSubmission("d", Arrays.asList(10, 10));
+        server.addSubmission("b", Arrays.asList(1, 1));
+
+        assertEquals(Arrays.asList("d", "b", "a", "c"), server.topK(10));
+        assertEquals(1, server.rankOf("d"));
+        assertEquals(3, server.rankOf("c"));
+        assertEquals(2, server.numScoredAtLeast(11));
+    }
+
+    // Tests that the metrics count accepted and rejected submissions by
+    // reason, and that they can be read through JMX.
+    @Test public void testMetrics() throws Exception {
+        SPSS server= new SPSS(2);
+
+        server.addStudent("Ann");
+        server.addSubmission("Ann", Arrays.asList(1, 1));
+        server.addSubmission("Ann", Arrays.asList(0, 1));
+        server.addSubmission("Ann", Arrays.asList(1, -1));
+        server.addSubmission("Ann", Arrays.asList(1, null));
+        server.addSubmission("Ann", Arrays.asList(1));
+        server.addSubmission("Bob", Arrays.asList(1, 1));
+        server.addSubmission(null, Arrays.asList(1, 1));
+        server.readSubmissionsConcurrently(
+            Arrays.asList(writeInput("Ann 1 x\nAnn 3 3\n")));
+
+        IngestMetrics.Snapshot snapshot= server.getMetrics().snapshot();
+        assertEquals(3, snapshot.getAccepted());
+        assertEquals(6, snapshot.getRejected());
+        assertEquals(1, snapshot.getRejected(RejectReason.NEGATIVE_SCORE));
+        assertEquals(1, snapshot.getRejected(RejectReason.NULL_SCORE));
+        assertEquals(1, snapshot.getRejected(
+                            RejectReason.WRONG_NUMBER_OF_TESTS));
+        assertEquals(1, snapshot.getRejected(RejectReason.UNKNOWN_STUDENT));
+        assertEquals(1, snapshot.getRejected(RejectReason.NULL_NAME));
+        assertEquals(1, snapshot.getRejected(RejectReason.MALFORMED_SCORE));
+        assertEquals(2, snapshot.getBestReplacements());
+        assertEquals(1, snapshot.getCountOnlyUpdates());
+        assertEquals(1, snapshot.getFiles().size());
+        assertEquals(2, snapshot.getFiles().get(0).getLines());
+
+        ObjectName name= server.getMetrics().registerMBean();
+        try {
+            assertEquals(3L, ManagementFactory.getPlatformMBeanServer()
+                             .getAttribute(name, "Accepted"));
+            CompositeData[] files= (CompositeData[])
+                ManagementFactory.getPlatformMBeanServer()
+                .getAttribute(name, "RecentFiles");
+            assertEquals(1, files.length);
+            assertEquals(2L, files[0].get("lines"));
+        } finally {
+            server.getMetrics().unregisterMBean();
+        }
+
+        // Each read of a file is kept, up to a bound
+        String fileName= writeInput("Ann 1 1\n");
+        for (int i= 0; i < 256; i++) {
+            server.readSubmissionsConcurrently(Arrays.asList(fileName));
+        }
+        List<IngestMetrics.FileStats> recent=
+            server.getMetrics().getRecentFiles();
+        assertEquals(256, recent.size());
+        assertEquals(fileName, recent.get(0).getFileName());
+        assertEquals(257, server.getMetrics().getFilesRead());
+
+        // Each line of a file that beats the lines before it counts as a
+        // replacement, as it would when added on its own
+        SPSS other= new SPSS(2);
+        other.addStudent("Ann");
+        other.addSubmission("Ann", Arrays.asList(2, 2));
+        other.readSubmissionsConcurrently(Arrays.asList(
+            writeInput("Ann 3 3\nAnn 1 1\nAnn 5 5\nAnn 5 5\nAnn 0 1\n")));
+        snapshot= other.getMetrics().snapshot();
+        assertEquals(4, snapshot.getBestReplacements());
+        assertEquals(2, snapshot.getCountOnlyUpdates());
+        assertEquals(6, other.numSubmissions("Ann"));
+    }
+
+    // Tests rebuilding a server from its write-ahead log, including a log
+    // started on a server that already had submissions and a log whose
+    // last record was cut off.
+    @Test public void testWriteAheadLog() throws IOException {
+        Path file= Files.createTempFile("spss", ".log");
+        Files.delete(file);
+        file.toFile().deleteOnExit();
+
+        SPSS server= new SPSS(3);
+        server.addStudent("Ann");
+        server.addStudent("Bob");
+        server.addSubmission("Ann", Arrays.asList(5, 5, 5));
+        server.enableWriteAheadLog(file);
+        server.addStudent("Carl");
+        server.addSubmission("Ann", Arrays.asList(9, 0, 6));
+        server.addSubmission("Carl", Arrays.asList(1, 2, 3));
+        server.readSubmissionsConcurrently(
+            Arrays.asList(writeInput("Bob 1 1 1\nCarl 0 0 1\n")));
+        server.closeWriteAheadLog();
+
+        SPSS recovered= SPSS.recoverFromLog(file);
+        assertEquals(3, recovered.numStudents());
+        assertEquals(5, recovered.numSubmissions());
+        assertEquals(2, recovered.numSubmissions("Ann"));
+        assertEquals(15, recovered.score("Ann"));
+        assertFalse(recovered.gotExtraCredit("Ann"));
+        assertEquals(1, recovered.numSubmissions("Bob"));
+        assertEquals(2, recovered.numSubmissions("Carl"));
+        assertEquals(6, recovered.score("Carl"));
+        assertEquals(2, recovered.indexOfStd("Carl"));
+
+        // The recovered server goes on logging to the same file
+        recovered.addSubmission("Bob", Arrays.asList(7, 7, 7));
+        recovered.closeWriteAheadLog();
+
+        // Cut the last record off, as a crash would
+        byte[] bytes= Files.readAllBytes(file);
+        Files.write(file, Arrays.copyOf(bytes, bytes.length - 2));
+        SPSS truncated= SPSS.recoverFromLog(file);
+        truncated.closeWriteAheadLog();
+        assertEquals(5, truncated.numSubmissions());
+        assertEquals(3, truncated.score("Bob"));
+    }
+
+    // Tests that a log written while students are added and get submissions
+    // at the same time recovers every student and every submission
+    @Test public void testWriteAheadLogConcurrentStudents() throws Exception {
+        Path file= Files.createTempFile("spss", ".log");
+        Files.delete(file);
+        file.toFile().deleteOnExit();
+
+        SPSS server= new SPSS(2);
+        server.enableWriteAheadLog(file);
+        Thread adder= new Thread(() -> {
+            for (int i= 0; i < 1000; i++) {
+                server.addStudent("s" + i);
+            }
+            for (int i= 1000; i < 5000; i+= 1000) {
+                List<String> names= new ArrayList<>();
+                for (int j= i; j < i + 1000; j++) {
+                    names.add("s" + j);
+                }
+                server.addStudents(names);
+            }
+        });
+        adder.start();
+        // Submit for each student as soon as they can be seen, from both
+        // ends of each batch
+        Thread submitter= new Thread(() -> {
+            for (int i= 4999; i >= 0; i--) {
+                while (!server.addSubmission("s" + i, Arrays.asList(i, 1))) {
+                    Thread.yield();
+                }
+            }
+        });
+        submitter.start();
+        for (int i= 0; i < 5000; i++) {
+            while (!server.addSubmission("s" + i, Arrays.asList(i, 1))) {
+                Thread.yield();
+            }
+        }
+        adder.join();
+        submitter.join();
+        server.closeWriteAheadLog();
+
+        SPSS recovered= SPSS.recoverFromLog(file);
+        assertEquals(5000, recovered.numStudents());
+        assertEquals(10000, recovered.numSubmissions());
+        assertEquals(5000, recovered.score("s4999"));
+        assertEquals(999, recovered.indexOfStd("s999"));
+    }
+
+    // Tests that a snapshot restores students, scores and rankings
+    @Test public void testSnapshot() throws IOException {
+        Path file= Files.createTempFile("spss", ".snapshot");
+        file.toFile().deleteOnExit();
+
+        SPSS server= new SPSS(3);
+        server.addStudent("Ann");
+        server.addStudent("Bj\u00f6rn");
+        server.addStudent("Carl");
+        server.addSubmission("Ann", Arrays.asList(5, 5, 5));
+        server.addSubmission("Ann", Arrays.asList(1, 0, 1));
+        server.addSubmission("Carl", Arrays.asList(9, 9, 9));
+        server.saveSnapshot(file);
+
+        SPSS loaded= SPSS.loadSnapshot(file);
+        assertEquals(3, loaded.numStudents());
+        assertEquals(3, loaded.numSubmissions());
+        assertEquals(2, loaded.numSubmissions("Ann"));
+        assertEquals(15, loaded.score("Ann"));
+        assertTrue(loaded.containStd("Bj\u00f6rn"));
+        assertEquals(0, loaded.numSubmissions("Bj\u00f6rn"));
+        assertEquals(2, loaded.indexOfStd("Carl"));
+        assertEquals(Arrays.asList("Carl", "Ann"), loaded.topK(2));
+
+        // The loaded server takes new students and submissions
+        assertTrue(loaded.addStudent("Dora"));
+        assertTrue(loaded.addSubmission("Ann", Arrays.asList(6, 6, 6)));
+        assertEquals(18, loaded.score("Ann"));
+        assertEquals(3, loaded.indexOfStd("Dora"));
+
+        // A file that is not a snapshot is refused
+        Files.write(file, "Ann 1 2 3\n".getBytes(StandardCharsets.UTF_8));
+        try {
+            SPSS.loadSnapshot(file);
+            fail();
+        } catch (IOException e) {
+        }
+    }
+
+    // Tests that streamed and followed sources are applied as lines arrive
+    @Test public void testStreamSubmissions() throws Exception {
+        Path file= Paths.get(writeInput("Ann 1 1 1\n"));
+        SPSS server= new SPSS(3);
+        server.addStudent("Ann");
+        server.addStudent("Bob");
+
+        SubmissionStream stream= server.streamSubmissions();
+        stream.tail(file);
+        stream.read("bob", new ByteArrayInputStream(
+            "Bob 2 2 2\nBob 4 4 4".getBytes(StandardCharsets.UTF_8)));
+
+        // Lines appended to the followed file show up without draining
+        Files.write(file, "Ann 5 5 5\n".getBytes(StandardCharsets.UTF_8),
+            StandardOpenOption.APPEND);
+        long deadline= System.currentTimeMillis() + 10000;
+        while (server.score("Ann") != 15
+               && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(15, server.score("Ann"));
+
+        // A line still being written when draining is not parsed
+        Files.write(file, "Ann 0 0 1\nAnn 9 9 9"
+                    .getBytes(StandardCharsets.UTF_8),
+            StandardOpenOption.APPEND);
+        stream.drain();
+        assertTrue(stream.getReport().isSuccessful());
+        assertEquals(3, server.numSubmissions("Ann"));
+        assertEquals(15, server.score("Ann"));
+        FileSummary summary=
+            summaryOf(stream.getReport(), file.toString());
+        assertEquals(4, summary.getNumLines());
+        assertEquals(1, summary.getNumRejected(RejectReason.INCOMPLETE_LINE));
+        assertEquals(12, server.score("Bob"));
+        try {
+            stream.read("late", new ByteArrayInputStream(new byte[0]));
+            fail();
+        } catch (IllegalStateException e) {
+        }
+        stream.close();
+    }
+
+    // Tests that a followed file which is truncated and written again is
+    // read from its start, without the partial line read before.
+    @Test public void testTailTruncated() throws Exception {
+        Path file= Paths.get(writeInput("Ann 1 1 1\nAnn 9 9"));
+        SPSS server= new SPSS(3);
+        server.addStudent("Ann");
+
+        SubmissionStream stream= server.streamSubmissions();
+        stream.tail(file);
+        long deadline= System.currentTimeMillis() + 10000;
+        while (server.score("Ann") != 3
+               && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(3, server.score("Ann"));
+
+        Files.write(file, "Ann 2 2 2\n".getBytes(StandardCharsets.UTF_8));
+        while (server.score("Ann") != 6
+               && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        stream.drain();
+        assertEquals(6, server.score("Ann"));
+        assertEquals(2, server.numSubmissions("Ann"));
+        FileSummary summary=
+            summaryOf(stream.getReport(), file.toString());
+        assertEquals(1, summary.getNumRejected(RejectReason.INCOMPLETE_LINE));
+        assertEquals(0, summary.getNumRejected(RejectReason.MALFORMED_SCORE));
+        stream.close();
+    }
+
+    // Tests that a line too long to buffer is rejected and skipped, and
+    // that a stream without any newline does not grow the buffer without
+    // bound.
+    @Test public void testLongLines() throws Exception {
+        SPSS server= new SPSS(3);
+        server.addStudent("Ann");
+
+        byte[] start= "Ann 1 1 1\nAnn ".getBytes(StandardCharsets.UTF_8);
+        byte[] end= "\nAnn 2 2 2\n".getBytes(StandardCharsets.UTF_8);
+        byte[] text= new byte[start.length + 3 * 1024 * 1024 + end.length];
+        Arrays.fill(text, (byte) '7');
+        System.arraycopy(start, 0, text, 0, start.length);
+        System.arraycopy(end, 0, text, text.length - end.length, end.length);
+        byte[] noNewline= new byte[4 * 1024 * 1024];
+        Arrays.fill(noNewline, (byte) 'x');
+
+        SubmissionStream stream= server.streamSubmissions();
+        stream.read("long", new ByteArrayInputStream(text));
+        stream.read("no-newline", new ByteArrayInputStream(noNewline));
+        stream.drain();
+        stream.close();
+
+        assertEquals(6, server.score("Ann"));
+        assertEquals(2, server.numSubmissions("Ann"));
+        FileSummary summary= summaryOf(stream.getReport(), "long");
+        assertEquals(3, summary.getNumLines());
+        assertEquals(2, summary.getNumAccepted());
+        assertEquals(1, summary.getNumRejected(RejectReason.LINE_TOO_LONG));
+        summary= summaryOf(stream.getReport(), "no-newline");
+        assertEquals(1, summary.getNumLines());
+        assertEquals(1, summary.getNumRejected(RejectReason.LINE_TOO_LONG));
+        assertEquals(2, server.getMetrics().snapshot()
+                           .getRejected(RejectReason.LINE_TOO_LONG));
+    }
+
+    // Tests that queries during ingest only see whole submissions
+    @Test public void testConsistentReads() throws Exception {
+        SPSS server= new SPSS(4);
+        server.addStudent("Ann");
+        server.addSubmission("Ann", Arrays.asList(1, 1, 1, 1));
+
+        Thread writer= new Thread(() -> {
+            for (int i= 2; i <= 20000; i++) {
+                server.addSubmission("Ann", new int[] {i, i, i, i});
+            }
+        });
+        writer.start();
+        int last= 4;
+        while (writer.isAlive()) {
+            int score= server.score("Ann");
+            assertEquals(0, score % 4);
+            assertTrue(score >= last);
+            assertTrue(server.satisfactory("Ann"));
+            assertTrue(server.gotExtraCredit("Ann"));
+            last= score;
+        }
+        writer.join();
+        assertEquals(80000, server.score("Ann"));
+    }
+
+    // Tests that a sharded ingest gives the same results as reading in order
+    @Test public void testShardedIngest() throws IOException {
+        SPSS server= new SPSS(2);
+        SPSS expected= new SPSS(2);
+        StringBuilder text= new StringBuilder();
+        for (int i= 0; i < 50; i++) {
+            server.addStudent("S" + i);
+            expected.addStudent("S" + i);
+        }
+        for (int i= 0; i < 20000; i++) {
+            text.append("S" + (i * 7 % 50) + " " + (i % 13) + " "
+                        + (i % 5) + "\n");
+        }
+        text.append("Nobody 1 1\n");
+        String fileName= writeInput(text.toString());
+        expected.readSubmissionsConcurrently(Arrays.asList(fileName));
+
+        try (ShardedIngest ingest= server.openShardedIngest(4)) {
+            IngestReport report= ingest.readSubmissions(
+                Arrays.asList(fileName, "missing-file"));
+            assertEquals(Arrays.asList("missing-file"),
+                         new ArrayList<>(report.getFailures().keySet()));
+        }
+        assertEquals(20000, server.numSubmissions());
+        for (int i= 0; i < 50; i++) {
+            assertEquals(expected.score("S" + i), server.score("S" + i));
+            assertEquals(expected.numSubmissions("S" + i),
+                         server.numSubmissions("S" + i));
+        }
+        assertEquals(expected.topK(10), server.topK(10));
+    }
+
+    // Tests submissions and queries over a TCP connection
+    @Test public void testSubmissionServer() throws IOException {
+        SPSS server= new SPSS(3);
+        server.addStudent("Ann");
+        try (SubmissionServer listener= server.listen(
+                 new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+             Socket socket= new Socket(InetAddress.getLoopbackAddress(),
+                                       listener.getPort())) {
+            OutputStream out= socket.getOutputStream();
+            BufferedReader in= new BufferedReader(new InputStreamReader(
+                socket.getInputStream(), StandardCharsets.UTF_8));
+            out.write(("Ann 1 2 3\nAnn 4 4 4\nBob 1 1 1\n?score Ann\n"
+                       + "?numSubmissions Ann\n?numSubmissions\n"
+                       + "?satisfactory Ann\n?gotExtraCredit Bob\n?rank Ann\n")
+                      .getBytes(StandardCharsets.UTF_8));
+            out.flush();
+            assertEquals("OK 2 1", in.readLine());
+            assertEquals("12", in.readLine());
+            assertEquals("2", in.readLine());
+            assertEquals("2", in.readLine());
+            assertEquals("true", in.readLine());
+            assertEquals("false", in.readLine());
+            assertEquals("ERR unknown query", in.readLine());
+
+            // Submissions are added by the time they are answered
+            out.write("Ann 5 5 5\n".getBytes(StandardCharsets.UTF_8));
+            out.flush();
+            assertEquals("OK 1 0", in.readLine());
+            assertEquals(15, server.score("Ann"));
+            assertEquals(3, server.numSubmissions("Ann"));
+
+            out.write("Ann 9 9 9".getBytes(StandardCharsets.UTF_8));
+            socket.shutdownOutput();
+            assertEquals("OK 1 0", in.readLine());
+            assertNull(in.readLine());
+        }
+        assertEquals(27, server.score("Ann"));
+    }
+
+    // Tests looking up many students, with names of all kinds of characters
+    @Test public void testManyStudents() throws IOException {
+        SPSS server= new SPSS(1);
+        String[] names= {"Ann", "\u00c5sa", "\u674e\u96f7", "Ann ", "a\u0000"};
+        for (int i= 0; i < 20000; i++) {
+            assertTrue(server.addStudent(names[i % names.length] + i));
+        }
+        for (String name : names) {
+            assertTrue(server.addStudent(name));
+            assertFalse(server.addStudent(name));
+        }
+        assertEquals(20005, server.numStudents());
+        for (int i= 0; i < 20000; i += 7) {
+            assertEquals(i, server.indexOfStd(names[i % names.length] + i));
+        }
+        assertFalse(server.containStd("Ann1"));
+        assertFalse(server.containStd("\u00c5sa0"));
+        assertEquals(20002, server.indexOfStd("\u674e\u96f7"));
+
+        server.readSubmissionsConcurrently(Arrays.asList(
+            writeInput("\u00c5sa 4\n\u674e\u96f7 5\n\u674e\u96f7 2\nBo 1\n")));
+        assertEquals(4, server.score("\u00c5sa"));
+        assertEquals(5, server.score("\u674e\u96f7"));
+        assertEquals(3, server.numSubmissions());
+        assertEquals(Arrays.asList("\u674e\u96f7", "\u00c5sa"),
+                     server.topK(2));
+    }
+
+    // Tests that results kept off the heap behave like results on the heap
+    @Test public void testOffHeapResults() throws IOException {
+        SPSS server= new SPSS(3, true);
+        for (int i= 0; i < 10000; i++) {
+            server.addStudent("S" + i);
+        }
+        server.addSubmission("S0", Arrays.asList(1, 0, 1));
+        server.addSubmission("S0", Arrays.asList(0, 0, 0));
+        server.addSubmission("S9999", Arrays.asList(4, 5, 6));
+        server.readSubmissionsConcurrently(Arrays.asList(
+            writeInput("S5000 3 3 3\nS5000 2 2 2\nS9999 1 1 1\n")));
+
+        assertEquals(2, server.score("S0"));
+        assertEquals(2, server.numSubmissions("S0"));
+        assertTrue(server.satisfactory("S0"));
+        assertFalse(server.gotExtraCredit("S0"));
+        assertEquals(9, server.score("S5000"));
+        assertTrue(server.gotExtraCredit("S5000"));
+        assertEquals(15, server.score("S9999"));
+        assertEquals(0, server.score("S1"));
+        assertEquals(0, server.numSubmissions("S1"));
+        assertFalse(server.satisfactory("S1"));
+        assertEquals(6, server.numSubmissions());
+        assertEquals(Arrays.asList("S9999", "S5000", "S0"), server.topK(5));
+        assertEquals(2, server.rankOf("S5000"));
+
+        // Snapshots read the rows back out
+        Path file= Files.createTempFile("spss", ".snapshot");
+        file.toFile().deleteOnExit();
+        server.saveSnapshot(file);
+        SPSS loaded= SPSS.loadSnapshot(file);
+        assertEquals(9, loaded.score("S5000"));
+        assertEquals(2, loaded.numSubmissions("S5000"));
+    }
+
+    // Tests course-wide statistics, computed and kept up to date
+    @Test public void testStatistics() {
+        SPSS server= new SPSS(2);
+        server.enableLiveStatistics();
+        for (int i= 0; i < 10000; i++) {
+            server.addStudent("S" + i);
+        }
+        server.addStudent("Absent");
+        for (int i= 0; i < 10000; i++) {
+            server.addSubmission("S" + i, new int[] {i % 100, 0});
+        }
+        // Raise the best of the first hundred students
+        for (int i= 0; i < 100; i++) {
+            server.addSubmission("S" + i, new int[] {50, 50});
+        }
+
+        CourseStatistics stats= server.statistics();
+        assertTrue(stats.isExact());
+        assertEquals(10001, stats.getNumStudents());
+        assertEquals(10000, stats.getNumWithResults());
+        assertEquals(0, stats.min(0));
+        assertEquals(99, stats.max(0));
+        assertEquals(50, stats.percentile(0, 50));
+        assertEquals(0, stats.percentile(1, 98));
+        assertEquals(50, stats.percentile(1, 100));
+        assertEquals(0.5, stats.mean(1), 1e-9);
+        assertEquals(50.005, stats.meanTotal(), 1e-9);
+        assertEquals(9901.0 / 10001, stats.getSatisfactoryRate(), 1e-9);
+        long[] histogram= stats.totalsHistogram(50);
+        assertEquals(3, histogram.length);
+        assertEquals(100, histogram[2]);
+
+        // Scores below 128 are exact in the live statistics too
+        CourseStatistics live= server.liveStatistics();
+        assertFalse(live.isExact());
+        for (double percent : new double[] {0, 10, 50, 90, 100}) {
+            assertEquals(stats.percentile(0, percent),
+                         live.percentile(0, percent));
+            assertEquals(stats.totalPercentile(percent),
+                         live.totalPercentile(percent));
+        }
+        assertEquals(stats.meanTotal(), live.meanTotal(), 1e-9);
+        assertEquals(stats.getSatisfactoryRate(),
+                     live.getSatisfactoryRate(), 1e-9);
+    }
+
+    // Tests keeping every submission, with and without a retention limit
+    @Test public void testHistory() throws IOException {
+        SPSS server= new SPSS(3);
+        SPSS recent= new SPSS(3);
+        for (SPSS spss : Arrays.asList(server, recent)) {
+            spss.addStudent("Ann");
+            spss.addStudent("Bob");
+            spss.addSubmission("Ann", Arrays.asList(9, 9, 9));
+        }
+        assertNull(server.history("Ann"));
+        server.enableHistory(0);
+        recent.enableHistory(2);
+
+        StringBuilder text= new StringBuilder();
+        for (int i= 0; i < 1000; i++) {
+            text.append("Ann " + i + " " + (1000 - i) + " 7\nBob 1 1 1\n");
+        }
+        String fileName= writeInput(text.toString());
+        for (SPSS spss : Arrays.asList(server, recent)) {
+            spss.addSubmission("Ann", new int[] {-1, 0, 0});
+            spss.readSubmissionsConcurrently(Arrays.asList(fileName));
+            spss.addSubmission("Ann", Arrays.asList(0, 0, 100000));
+        }
+
+        List<int[]> all= server.history("Ann");
+        assertEquals(1001, all.size());
+        assertArrayEquals(new int[] {0, 1000, 7}, all.get(0));
+        assertArrayEquals(new int[] {999, 1, 7}, all.get(999));
+        assertArrayEquals(new int[] {0, 0, 100000}, all.get(1000));
+        assertEquals(1000, server.history("Bob").size());
+        assertEquals(1002, server.numSubmissions("Ann"));
+        assertNull(server.history("Carl"));
+
+        List<int[]> last= recent.history("Ann");
+        assertEquals(2, last.size());
+        assertArrayEquals(new int[] {999, 1, 7}, last.get(0));
+        assertArrayEquals(new int[] {0, 0, 100000}, last.get(1));
+
+        // Reading in parallel keeps the rows in the order of the file
+        SPSS parallel= new SPSS(3);
+        parallel.addStudent("Ann");
+        parallel.addStudent("Bob");
+        parallel.enableHistory(0);
+        assertTrue(parallel.readSubmissionsInParallel(fileName, 4));
+        List<int[]> rows= parallel.history("Ann");
+        assertEquals(1000, rows.size());
+        for (int i= 0; i < 1000; i++) {
+            assertArrayEquals(new int[] {i, 1000 - i, 7}, rows.get(i));
+        }
+        assertEquals(1000, parallel.history("Bob").size());
+        assertEquals(1007, parallel.score("Ann"));
+        assertFalse(parallel.readSubmissionsInParallel("nonexistent-file",
+                                                       4));
+    }
+
+    // Tests adding a roster at once, from a list, a stream and a file, and
+    // a roster large enough to be checked in parallel
+    @Test public void testAddStudents() throws IOException {
+        SPSS server= new SPSS(3);
+        server.addStudent("Ann");
+
+        List<String> rejected= server.addStudents(Arrays.asList("Bob",
+                "Ann", "", "Carl", null, "Bob", "Dee"));
+        assertEquals(Arrays.asList("Ann", "", null, "Bob"), rejected);
+        assertEquals(4, server.numStudents());
+        assertTrue(server.addSubmission("Dee", Arrays.asList(1, 2, 3)));
+        assertEquals(6, server.score("Dee"));
+
+        assertEquals(Arrays.asList("Carl"),
+                server.addStudents(Stream.of("Eve", "Carl")));
+        Path roster= Paths.get(writeInput("Fay\n\n  Gus \r\nEve\nFay\n"));
+        assertEquals(Arrays.asList("Eve", "Fay"), server.addStudents(roster));
+        assertEquals(7, server.numStudents());
+        assertEquals(0, server.numSubmissions("Gus"));
+
+        List<String> names= new ArrayList<>();
+        for (int i= 0; i < 200000; i++) {
+            names.add("student" + (i % 150000));
+        }
+        rejected= server.addStudents(names);
+        assertEquals(50000, rejected.size());
+        assertEquals("student0", rejected.get(0));
+        assertEquals("student49999", rejected.get(49999));
+        assertEquals(150007, server.numStudents());
+        assertTrue(server.addSubmission("student149999",
+                Arrays.asList(1, 1, 1)));
+    }
+
+    // Tests that malformed lines go to a dead-letter sink with their file
+    // and line number, while the rest of each file is still read
+    @Test public void testDeadLetters() throws IOException {
+        SPSS server= new SPSS(3);
+        server.addStudent("Ann");
+        server.addStudent("Bob");
+        String first= writeInput("Ann 1 2 3\nAnn 1 x 3\r\nBob 4 5 6\n"
+                                 + "Carl 1 1 1\nBob 9 9\n");
+        String second= writeInput("Bob 1 -1 1\n\nAnn 7 7 7");
+
+        List<String> rejected= Collections.synchronizedList(
+                new ArrayList<>());
+        ExecutorService executor= IngestExecutors.bounded(2);
+        IngestReport report;
+        try {
+            report= server.readSubmissionsConcurrently(Arrays.asList(first,
+                    second, "nonexistent-file"), executor,
+                    (file, line, reason, text) -> rejected.add(
+                            file + ":" + line + ": " + reason + ": " + text));
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(21, server.score("Ann"));
+        assertEquals(15, server.score("Bob"));
+        assertEquals(5, rejected.size());
+        assertTrue(rejected.contains(first + ":2: MALFORMED_SCORE: Ann 1 x 3"));
+        assertTrue(rejected.contains(first
+                                     + ":4: UNKNOWN_STUDENT: Carl 1 1 1"));
+        assertTrue(rejected.contains(first
+                                     + ":5: WRONG_NUMBER_OF_TESTS: Bob 9 9"));
+        assertTrue(rejected.contains(second
+                                     + ":1: NEGATIVE_SCORE: Bob 1 -1 1"));
+        assertTrue(rejected.contains(second + ":2: EMPTY_NAME: "));
+
+        FileSummary summary= summaryOf(report, first);
+        assertEquals(5, summary.getNumLines());
+        assertEquals(2, summary.getNumAccepted());
+        assertEquals(1, summary.getNumRejected(RejectReason.MALFORMED_SCORE));
+        assertEquals(1, summaryOf(report, second).getNumAccepted());
+        assertEquals(0, summaryOf(report, "nonexistent-file").getNumLines());
+        assertNotNull(summaryOf(report, "nonexistent-file").getFailure());
+        assertNull(summaryOf(report, first).getFailure());
+        assertEquals(1, report.getFailures().size());
+
+        // The same lines written to a dead-letter file
+        Path deadLetters= Files.createTempFile(Paths.get("."), "student",
+                                               "-dead");
+        deadLetters.toFile().deleteOnExit();
+        executor= IngestExecutors.bounded(1);
+        try (DeadLetterFile sink= new DeadLetterFile(deadLetters)) {
+            server.readSubmissionsConcurrently(Arrays.asList(first), executor,
+                                               sink);
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(Arrays.asList(first + ":2: MALFORMED_SCORE: Ann 1 x 3",
+                first + ":4: UNKNOWN_STUDENT: Carl 1 1 1",
+                first + ":5: WRONG_NUMBER_OF_TESTS: Bob 9 9"),
+                Files.readAllLines(deadLetters));
+
+        // A line too long to buffer is handed over with its reason, cut
+        // to the length of the buffer
+        StringBuilder longLine= new StringBuilder("Bob 1 1 1\nAnn ");
+        for (int i = 0; i < 2 * 1024 * 1024; i++) {
+            longLine.append('1');
+        }
+        String third= writeInput(longLine.append("\nBob 8 8 8\n").toString());
+        rejected.clear();
+        executor= IngestExecutors.bounded(1);
+        try {
+            report= server.readSubmissionsConcurrently(Arrays.asList(third),
+                    executor, (file, line, reason, text) -> rejected.add(
+                            file + ":" + line + ": " + reason + ": "
+                            + text.length() + " " + text.startsWith("Ann 1")));
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(Arrays.asList(third + ":2: LINE_TOO_LONG: "
+                                   + 1024 * 1024 + " true"), rejected);
+        assertEquals(1, summaryOf(report, third).getNumRejected(
+                            RejectReason.LINE_TOO_LONG));
+        assertEquals(24, server.score("Bob"));
+    }
+
+    // Tests adding submissions asynchronously from several threads, with
+    // invalid submissions completing with false
+    @Test public void testAddSubmissionAsync() throws Exception {
+        SPSS server= new SPSS(2);
+        server.addStudent("Ann");
+        server.addStudent("Bob");
+
+        List<CompletableFuture<Boolean>> futures=
+            Collections.synchronizedList(new ArrayList<>());
+        List<Thread> graders= new ArrayList<>();
+        for (int t= 0; t < 4; t++) {
+            String name= t % 2 == 0 ? "Ann" : "Bob";
+            Thread grader= new Thread(() -> {
+                for (int i= 0; i < 1000; i++) {
+                    futures.add(server.addSubmissionAsync(name,
+                            Arrays.asList(i, i)));
+                }
+            });
+            graders.add(grader);
+            grader.start();
+        }
+        for (Thread grader : graders) {
+            grader.join();
+        }
+        CompletableFuture<Boolean> unknown=
+            server.addSubmissionAsync("Carl", Arrays.asList(1, 1));
+        CompletableFuture<Boolean> negative=
+            server.addSubmissionAsync("Ann", Arrays.asList(-1, 1));
+        CompletableFuture<Boolean> tooShort=
+            server.addSubmissionAsync("Bob", Arrays.asList(1));
+
+        assertFalse(unknown.get());
+        assertFalse(negative.get());
+        assertFalse(tooShort.get());
+        for (CompletableFuture<Boolean> future : futures) {
+            assertTrue(future.get());
+        }
+        assertEquals(2000, server.numSubmissions("Ann"));
+        assertEquals(2000, server.numSubmissions("Bob"));
+        assertEquals(1998, server.score("Ann"));
+        assertEquals(1998, server.score("Bob"));
+        server.closeSubmissionQueue();
+    }
+
+    // Tests that a full submission queue rejects submissions right away,
+    // and that closing it adds the queued ones and stops its thread
+    @Test(timeout= 10000) public void testSubmissionQueue() throws Exception {
+        SPSS server= new SPSS(2);
+        server.addStudent("Ann");
+
+        // Hold the applier in the completion of its first batch
+        CountDownLatch completing= new CountDownLatch(1);
+        CountDownLatch release= new CountDownLatch(1);
+        SubmissionQueue queue= server.openSubmissionQueue(3, task -> {
+            completing.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+            task.run();
+        });
+        CompletableFuture<Boolean> first=
+            queue.submit("Ann", Arrays.asList(1, 1));
+        completing.await();
+
+        List<CompletableFuture<Boolean>> queued= new ArrayList<>();
+        for (int i= 0; i < 3; i++) {
+            queued.add(queue.submit("Ann", Arrays.asList(2, 2)));
+        }
+        CompletableFuture<Boolean> full=
+            queue.submit("Ann", Arrays.asList(9, 9));
+        assertTrue(full.isCompletedExceptionally());
+        try {
+            full.get();
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof RejectedExecutionException);
+        }
+        assertFalse(first.isDone());
+
+        release.countDown();
+        queue.close();
+        assertTrue(first.get());
+        for (CompletableFuture<Boolean> future : queued) {
+            assertTrue(future.get());
+        }
+        assertEquals(4, server.numSubmissions("Ann"));
+        assertEquals(4, server.score("Ann"));
+        assertTrue(queue.submit("Ann", Arrays.asList(1, 1))
+                   .isCompletedExceptionally());
+
+        // The queue of addSubmissionAsync() can be closed and started again
+        assertTrue(server.addSubmissionAsync("Ann", Arrays.asList(3, 3))
+                   .get());
+        server.closeSubmissionQueue();
+        assertTrue(server.addSubmissionAsync("Ann", Arrays.asList(1, 1))
+                   .get());
+        server.closeSubmissionQueue();
+        assertEquals(6, server.numSubmissions("Ann"));
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            assertFalse(thread.getName().startsWith("spss-async-"));
+        }
+    }
+
 }